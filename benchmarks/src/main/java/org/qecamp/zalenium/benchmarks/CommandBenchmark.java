@@ -0,0 +1,90 @@
+package org.qecamp.zalenium.benchmarks;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openqa.selenium.By;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.qecamp.zalenium.TestAbstract;
+import org.qecamp.zalenium.WebDriverFactory;
+
+/**
+ * Page helpers of the tests on a single session: the time of a call and the remote commands it sends, reported as
+ * the calls and commands counters of each benchmark (commands per call = commands / calls).
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class CommandBenchmark {
+    private static final By TITLE = By.cssSelector("h1.title");
+    private static final By LINK = By.linkText("Developers");
+
+    private FakeHub hub;
+    private Page page;
+
+    // the helpers of the tests on a leased driver
+    private static class Page extends TestAbstract {
+        private Page(RemoteWebDriver webDriver) {
+            this.webDriver = webDriver;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Commands {
+        public long calls;
+        public long commands;
+    }
+
+    @Setup(Level.Trial)
+    public void setup(Grid grid) throws MalformedURLException {
+        hub = grid.getHub();
+        page = new Page(WebDriverFactory.getDriver(grid.newContext("commands")));
+    }
+
+    @Benchmark
+    public void click(Commands counters) {
+        long start = hub.getRequests();
+        page.click(LINK);
+        count(counters, start);
+    }
+
+    // the page did not change since the last query, only the marker is read
+    @Benchmark
+    public String text(Commands counters) {
+        long start = hub.getRequests();
+        String text = page.text(TITLE);
+        count(counters, start);
+        return text;
+    }
+
+    // the click invalidates the cached page
+    @Benchmark
+    public String clickText(Commands counters) {
+        long start = hub.getRequests();
+        page.click(LINK);
+        String text = page.text(TITLE);
+        count(counters, start);
+        return text;
+    }
+
+    private void count(Commands counters, long start) {
+        counters.calls++;
+        counters.commands += hub.getRequests() - start;
+    }
+}
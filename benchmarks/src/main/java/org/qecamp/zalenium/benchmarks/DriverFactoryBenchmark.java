@@ -0,0 +1,52 @@
+package org.qecamp.zalenium.benchmarks;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.qecamp.zalenium.WebDriverFactory;
+import org.testng.ITestContext;
+
+/**
+ * Driver lookups of the listener and of the tests under contention, every parallel test thread asks for the driver of
+ * its own test. The drivers are leased in the setup, the benchmark measures the lookup of a leased driver.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Threads(Grid.THREADS)
+public class DriverFactoryBenchmark {
+    private ITestContext context;
+
+    @Setup(Level.Trial)
+    public void setup(Grid grid, ThreadParams params) throws MalformedURLException {
+        context = grid.newContext("test-" + params.getThreadIndex());
+        WebDriverFactory.getDriver(context);
+    }
+
+    @Benchmark
+    public String getDriverName() {
+        return WebDriverFactory.getDriverName(context);
+    }
+
+    @Benchmark
+    public RemoteWebDriver getDriver() throws MalformedURLException {
+        return WebDriverFactory.getDriver(context);
+    }
+}
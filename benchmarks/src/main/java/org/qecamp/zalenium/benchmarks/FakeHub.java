@@ -0,0 +1,259 @@
+package org.qecamp.zalenium.benchmarks;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-process selenium hub answering the commands of the framework without a browser: sessions, url, elements,
+ * click, text, the page scripts and the zalenium grid status. A session runs one command at a time like a driver,
+ * {@link #SLEEP_SCRIPT} holds it for the milliseconds of its argument. Every request is counted, the benchmarks divide
+ * the count by their operations to get the remote commands per operation.
+ */
+public class FakeHub {
+    // script of a slow command, its argument is the duration in milliseconds
+    public static final String SLEEP_SCRIPT = "/* fakeHubSleep */ return null;";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String DEVELOPERS_URL = "https://developers.redhat.com/";
+
+    private final int slots;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final Map<String, Map<String, Object>> sessions = new ConcurrentHashMap<String, Map<String, Object>>();
+    private final LongAdder requests = new LongAdder();
+
+    public FakeHub(int slots) throws IOException {
+        this.slots = slots;
+        // without it the small responses wait for the delayed acks of the client, ~40ms per command
+        System.setProperty("sun.net.httpserver.nodelay", "true");
+        server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", this::handle);
+        final AtomicInteger threads = new AtomicInteger();
+        executor = Executors.newFixedThreadPool(16, runnable -> {
+            Thread thread = new Thread(runnable, "fake-hub-" + threads.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    public String getUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/wd/hub";
+    }
+
+    public String getBaseUrl() {
+        return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort() + "/";
+    }
+
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    // the hub forgets its sessions, their commands get 'no such session'
+    public void dropSessions() {
+        sessions.clear();
+    }
+
+    public void stop() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            requests.increment();
+            Map<String, Object> body = readBody(exchange);
+            respond(exchange, dispatch(exchange.getRequestMethod(), exchange.getRequestURI().getPath(), body));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> readBody(HttpExchange exchange) throws IOException {
+        try (InputStream in = exchange.getRequestBody()) {
+            byte[] bytes = readAll(in);
+            if (bytes.length == 0) {
+                return Collections.emptyMap();
+            }
+            try {
+                return MAPPER.readValue(bytes, Map.class);
+            } catch (IOException ex) {
+                return Collections.emptyMap();
+            }
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        byte[] buffer = new byte[4096];
+        int length = 0;
+        int read;
+        while ((read = in.read(buffer, length, buffer.length - length)) > 0) {
+            length += read;
+            if (length == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            }
+        }
+        return Arrays.copyOf(buffer, length);
+    }
+
+    private void respond(HttpExchange exchange, Map<String, Object> response) throws IOException {
+        int status = Integer.valueOf(6).equals(response.get("status")) ? 404 : 200;
+        byte[] bytes = MAPPER.writeValueAsBytes(response);
+        exchange.getResponseHeaders().set("Content-Type", "application/json;charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    private Map<String, Object> dispatch(String method, String path, Map<String, Object> body) {
+        if (path.startsWith("/grid/api/hub")) {
+            Map<String, Object> slotCounts = new HashMap<String, Object>();
+            slotCounts.put("free", Math.max(slots - sessions.size(), 0));
+            slotCounts.put("total", slots);
+            Map<String, Object> response = new HashMap<String, Object>();
+            response.put("success", true);
+            response.put("slotCounts", slotCounts);
+            response.put("newSessionRequestCount", 0);
+            return response;
+        }
+        List<String> parts = new ArrayList<String>();
+        for (String part : path.split("/")) {
+            if (!part.isEmpty()) {
+                parts.add(part);
+            }
+        }
+        int index = parts.indexOf("session");
+        if (index < 0) {
+            return reply(null, 0, null);
+        }
+        if (index == parts.size() - 1) {
+            if (!"POST".equals(method)) {
+                return reply(null, 0, Collections.emptyList());
+            }
+            String sessionId = UUID.randomUUID().toString().replace("-", "");
+            Map<String, Object> session = new ConcurrentHashMap<String, Object>();
+            session.put("url", "about:blank");
+            sessions.put(sessionId, session);
+            Map<String, Object> capabilities = new HashMap<String, Object>();
+            capabilities.put("browserName", "chrome");
+            capabilities.put("platform", "LINUX");
+            return reply(sessionId, 0, capabilities);
+        }
+        String sessionId = parts.get(index + 1);
+        Map<String, Object> session = sessions.get(sessionId);
+        if (session == null) {
+            return reply(sessionId, 6, Collections.singletonMap("message", "no such session"));
+        }
+        String command = String.join("/", parts.subList(index + 2, parts.size()));
+        if (command.isEmpty() && "DELETE".equals(method)) {
+            sessions.remove(sessionId);
+            return reply(sessionId, 0, null);
+        }
+        // one command at a time per session
+        synchronized (session) {
+            return dispatch(method, sessionId, session, command, body);
+        }
+    }
+
+    private Map<String, Object> dispatch(String method, String sessionId, Map<String, Object> session, String command,
+            Map<String, Object> body) {
+        switch (command) {
+            case "url":
+                if ("POST".equals(method)) {
+                    session.put("url", String.valueOf(body.get("url")));
+                    return reply(sessionId, 0, null);
+                }
+                return reply(sessionId, 0, session.get("url"));
+            case "elements":
+                return reply(sessionId, 0, Collections.singletonList(Collections.singletonMap("ELEMENT", "e1")));
+            case "element":
+                return reply(sessionId, 0, Collections.singletonMap("ELEMENT", "e1"));
+            case "execute":
+            case "execute/sync":
+                return reply(sessionId, 0, execute(body));
+            case "log":
+                return reply(sessionId, 0, Collections.emptyList());
+            case "window_handle":
+            case "window":
+                return reply(sessionId, 0, "w1");
+            default:
+                break;
+        }
+        if (command.endsWith("/click")) {
+            session.put("url", DEVELOPERS_URL);
+        } else if (command.endsWith("/text")) {
+            return reply(sessionId, 0, "Title");
+        }
+        return reply(sessionId, 0, null);
+    }
+
+    // the scripts of the framework: document ready, network idle and the batched dom query
+    private Object execute(Map<String, Object> body) {
+        String script = String.valueOf(body.get("script"));
+        if (SLEEP_SCRIPT.equals(script)) {
+            Object args = body.get("args");
+            if (args instanceof List && !((List<?>) args).isEmpty() && ((List<?>) args).get(0) instanceof Number) {
+                try {
+                    Thread.sleep(((Number) ((List<?>) args).get(0)).longValue());
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            return null;
+        } else if (script.contains("readyState")) {
+            return "complete";
+        } else if (script.contains("__qecampMarker")) {
+            int count = 0;
+            Object args = body.get("args");
+            if (args instanceof List && !((List<?>) args).isEmpty() && ((List<?>) args).get(0) instanceof List) {
+                count = ((List<?>) ((List<?>) args).get(0)).size();
+            }
+            List<Object> results = new ArrayList<Object>();
+            for (int i = 0; i < count; i++) {
+                Map<String, Object> result = new HashMap<String, Object>();
+                result.put("text", "Title");
+                result.put("visible", true);
+                result.put("attributes", Collections.singletonMap("class", "title"));
+                results.add(result);
+            }
+            Map<String, Object> value = new HashMap<String, Object>();
+            value.put("marker", "m1");
+            value.put("mutations", 0);
+            value.put("results", results);
+            return value;
+        } else if (script.contains("getEntriesByType")) {
+            return 5;
+        }
+        return null;
+    }
+
+    private static Map<String, Object> reply(String sessionId, int status, Object value) {
+        Map<String, Object> response = new HashMap<String, Object>();
+        response.put("sessionId", sessionId);
+        response.put("status", status);
+        response.put("value", value);
+        return response;
+    }
+}
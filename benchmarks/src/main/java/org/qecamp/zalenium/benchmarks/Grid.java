@@ -0,0 +1,61 @@
+package org.qecamp.zalenium.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.qecamp.zalenium.ResultJournal;
+import org.qecamp.zalenium.WebDriverFactory;
+import org.testng.ISuite;
+import org.testng.ITestContext;
+
+/**
+ * The fake hub and the suite shared by the threads of a benchmark. The framework reads its settings from the system
+ * properties when its classes are loaded, they point to the fake hub before the first framework call: the states of
+ * the benchmarks take this one as a parameter of their setup.
+ */
+@State(Scope.Benchmark)
+public class Grid {
+    // parallel tests of the suite, the framework holds a driver per test
+    public static final int THREADS = 4;
+
+    private FakeHub hub;
+    private ISuite suite;
+    private File results;
+
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        hub = new FakeHub(1024);
+        System.setProperty("seleniumGrid", hub.getUrl());
+        System.setProperty("baseUrl", hub.getBaseUrl());
+        results = File.createTempFile("results", ".jsonl");
+        System.setProperty("resultsFile", results.getPath());
+        suite = Stubs.suite(Stubs.xmlSuite("benchmark", THREADS));
+        ResultJournal.open();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        ResultJournal.close();
+        // per test drivers are released when their test finishes
+        for (String key : WebDriverFactory.getKeysAllDriver()) {
+            WebDriverFactory.releaseDriver(key);
+        }
+        WebDriverFactory.tearDownAll();
+        hub.stop();
+        results.delete();
+    }
+
+    public FakeHub getHub() {
+        return hub;
+    }
+
+    // the xml tests of the suite are a plain list
+    public synchronized ITestContext newContext(String name) {
+        return Stubs.context(suite, name);
+    }
+}
@@ -0,0 +1,50 @@
+package org.qecamp.zalenium.benchmarks;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.qecamp.zalenium.MyCustomTestListener;
+import org.qecamp.zalenium.WebDriverFactory;
+import org.testng.ITestResult;
+
+/**
+ * Framework overhead of a test method: the listener events of a passed method on the parallel test threads, with the
+ * driver of each test already leased. The zalenium cookies are sent by the background sender of the framework.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+@Threads(Grid.THREADS)
+public class ListenerBenchmark {
+    private final MyCustomTestListener listener = new MyCustomTestListener();
+    private ITestResult result;
+
+    @Setup(Level.Trial)
+    public void setup(Grid grid, ThreadParams params) throws MalformedURLException {
+        result = Stubs.result(grid.newContext("test-" + params.getThreadIndex()), ListenerBenchmark.class,
+                "testMethod");
+        WebDriverFactory.getDriver(result.getTestContext());
+    }
+
+    @Benchmark
+    public void testMethod() {
+        listener.onTestStart(result);
+        listener.onTestSuccess(result);
+    }
+}
@@ -0,0 +1,138 @@
+package org.qecamp.zalenium.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+
+import org.testng.ITestNGListener;
+import org.testng.ITestResult;
+import org.testng.TestListenerAdapter;
+import org.testng.TestNG;
+import org.testng.xml.Parser;
+import org.testng.xml.XmlSuite;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Checks the resume of a browser matrix run against the fake hub, exits with 1 when a check fails. The suite of the
+ * tests runs on the browser matrix, the results of one fanned out test are dropped from the results file, the resumed
+ * run must run that test only. Each run is a new jvm, the framework runs a single suite per jvm.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.qecamp.zalenium.benchmarks.ResumeCheck
+ * </pre>
+ */
+public class ResumeCheck {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final String MATRIX = "browser-matrix.yaml";
+    // tests of testng.xml on the 3 entries of the matrix
+    private static final int TESTS = 12;
+    // its results are dropped, the run did not get to it
+    private static final String UNFINISHED = "Developer DevOps page tests [firefox]";
+
+    public static void main(String[] args) throws Exception {
+        if (args.length == 2 && "run".equals(args[0])) {
+            run(new File(args[1]));
+            return;
+        }
+        FakeHub hub = new FakeHub(64);
+        File directory = Files.createTempDirectory("resume-check").toFile();
+        File results = new File(directory, "results.jsonl");
+        boolean passed = true;
+        try {
+            List<String> first = runSuite(hub, directory, results, false);
+            passed &= check("matrix run, tests:" + first.size(), first.size() == TESTS);
+
+            dropTest(results, UNFINISHED);
+            List<String> resumed = runSuite(hub, directory, results, true);
+            passed &= check("resumed matrix run, tests:" + resumed,
+                    resumed.equals(Collections.singletonList(UNFINISHED)));
+        } finally {
+            hub.stop();
+        }
+        System.out.println("Runs: [" + directory.getPath() + "]");
+        System.exit(passed ? 0 : 1);
+    }
+
+    // runs testng.xml in a new jvm, returns the names of the tests that ran a method
+    private static List<String> runSuite(FakeHub hub, File directory, File results, boolean resume)
+            throws IOException, InterruptedException {
+        String name = resume ? "resumed" : "first";
+        File tests = new File(directory, name + ".txt");
+        List<String> command = new ArrayList<String>(Arrays.asList(
+                new File(System.getProperty("java.home"), "bin/java").getPath(),
+                "-cp", getClassPath(),
+                "-Dlogback.configurationFile=logback-benchmarks.xml",
+                "-DseleniumGrid=" + hub.getUrl(),
+                "-DbaseUrl=" + hub.getBaseUrl(),
+                "-DbrowserMatrix=" + MATRIX,
+                "-DresultsFile=" + results.getAbsolutePath(),
+                "-Dresume=" + resume,
+                ResumeCheck.class.getName(), "run", tests.getAbsolutePath()));
+        Process process = new ProcessBuilder(command)
+                .directory(directory)
+                .redirectErrorStream(true)
+                .redirectOutput(new File(directory, name + ".log"))
+                .start();
+        process.waitFor();
+        if (!tests.exists()) {
+            return Collections.emptyList();
+        }
+        return Files.readAllLines(tests.toPath(), StandardCharsets.UTF_8);
+    }
+
+    // absolute, the run has its own working directory
+    private static String getClassPath() {
+        List<String> entries = new ArrayList<String>();
+        for (String entry : System.getProperty("java.class.path").split(File.pathSeparator)) {
+            entries.add(new File(entry).getAbsolutePath());
+        }
+        return String.join(File.pathSeparator, entries);
+    }
+
+    // the run was stopped before the test: its events are not in the results file
+    private static void dropTest(File results, String test) throws IOException {
+        List<String> kept = new ArrayList<String>();
+        for (String line : Files.readAllLines(results.toPath(), StandardCharsets.UTF_8)) {
+            if (!line.isEmpty() && !test.equals(MAPPER.readValue(line, Map.class).get("test"))) {
+                kept.add(line);
+            }
+        }
+        Files.write(results.toPath(), kept, StandardCharsets.UTF_8);
+    }
+
+    // the child jvm: the suite of the tests with its listeners
+    private static void run(File tests) throws Exception {
+        List<XmlSuite> suites;
+        try (InputStream in = ResumeCheck.class.getClassLoader().getResourceAsStream("testng.xml")) {
+            suites = new Parser(in).parseToList();
+        }
+        TestListenerAdapter adapter = new TestListenerAdapter();
+        TestNG testng = new TestNG();
+        testng.setUseDefaultListeners(false);
+        testng.addListener((ITestNGListener) adapter);
+        testng.setXmlSuites(suites);
+        testng.run();
+        TreeSet<String> names = new TreeSet<String>();
+        List<ITestResult> finished = new ArrayList<ITestResult>(adapter.getPassedTests());
+        finished.addAll(adapter.getFailedTests());
+        for (ITestResult result : finished) {
+            names.add(result.getTestContext().getName());
+        }
+        Files.write(tests.toPath(), names, StandardCharsets.UTF_8);
+        System.exit(0);
+    }
+
+    private static boolean check(String name, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        return passed;
+    }
+}
@@ -0,0 +1,40 @@
+package org.qecamp.zalenium.benchmarks;
+
+import java.net.MalformedURLException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.qecamp.zalenium.WebDriverFactory;
+
+/**
+ * Session throughput of the parallel test threads: a session is created for a new driver key (grid capacity check,
+ * new session, first page load) and quit right after. The fake hub answers at once, the numbers are the cost of the
+ * framework and of the selenium client.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Threads(Grid.THREADS)
+public class SessionBenchmark {
+    private final AtomicLong keys = new AtomicLong();
+
+    @Benchmark
+    public void createQuit(Grid grid) throws MalformedURLException {
+        String key = "session-" + keys.incrementAndGet();
+        WebDriverFactory.getDriver(key);
+        WebDriverFactory.removeDriver(key);
+    }
+}
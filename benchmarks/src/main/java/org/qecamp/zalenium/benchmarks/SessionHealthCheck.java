@@ -0,0 +1,48 @@
+package org.qecamp.zalenium.benchmarks;
+
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.qecamp.zalenium.SessionHealth;
+import org.qecamp.zalenium.WebDriverFactory;
+
+/**
+ * Checks the session health monitor against the fake hub, exits with 1 when a check fails: a session running a
+ * command for longer than the health timeout is alive, a session the hub forgot is dead once idle for an interval.
+ *
+ * <pre>
+ * java -cp target/benchmarks.jar org.qecamp.zalenium.benchmarks.SessionHealthCheck
+ * </pre>
+ */
+public class SessionHealthCheck {
+    private static final long INTERVAL = 1000L;
+    // the slow command outlasts a few checks and their timeout
+    private static final long SLOW_COMMAND = 4 * INTERVAL;
+
+    public static void main(String[] args) throws Exception {
+        System.setProperty("healthInterval", String.valueOf(INTERVAL / 1000L));
+        System.setProperty("healthTimeout", String.valueOf(INTERVAL / 1000L));
+        FakeHub hub = new FakeHub(16);
+        System.setProperty("seleniumGrid", hub.getUrl());
+        System.setProperty("baseUrl", hub.getBaseUrl());
+        boolean passed = true;
+        try {
+            RemoteWebDriver webDriver = WebDriverFactory.getDriver("slow-command");
+            webDriver.executeScript(FakeHub.SLEEP_SCRIPT, SLOW_COMMAND);
+            passed &= check("slow command, session alive", !SessionHealth.isDead(webDriver));
+
+            hub.dropSessions();
+            Thread.sleep(3 * INTERVAL);
+            passed &= check("session dropped by the hub, session dead", SessionHealth.isDead(webDriver));
+            System.out.println("Health: {" + SessionHealth.stats() + "}");
+        } finally {
+            WebDriverFactory.removeDriver("slow-command");
+            WebDriverFactory.tearDownAll();
+            hub.stop();
+        }
+        System.exit(passed ? 0 : 1);
+    }
+
+    private static boolean check(String name, boolean passed) {
+        System.out.println((passed ? "PASS " : "FAIL ") + name);
+        return passed;
+    }
+}
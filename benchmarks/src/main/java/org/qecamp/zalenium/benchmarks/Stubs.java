@@ -0,0 +1,148 @@
+package org.qecamp.zalenium.benchmarks;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Proxy;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.testng.ISuite;
+import org.testng.ITestClass;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+
+/**
+ * The testng objects the listener and the driver factory read, without a testng run: suite and test names, the xml
+ * of the suite (parallel mode, thread count) and the method of a result. Other methods answer null, zero or false.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class Stubs {
+
+    // parallel tests with the given thread count, a driver per test
+    public static XmlSuite xmlSuite(String name, int threadCount) {
+        XmlSuite xmlSuite = new XmlSuite();
+        xmlSuite.setName(name);
+        if (threadCount > 1) {
+            xmlSuite.setParallel(XmlSuite.ParallelMode.TESTS);
+            xmlSuite.setThreadCount(threadCount);
+        }
+        return xmlSuite;
+    }
+
+    public static ISuite suite(final XmlSuite xmlSuite) {
+        return stub(ISuite.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return xmlSuite.getName();
+                case "getXmlSuite":
+                    return xmlSuite;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public static ITestContext context(final ISuite suite, String name) {
+        final XmlTest xmlTest = new XmlTest(suite.getXmlSuite());
+        xmlTest.setName(name);
+        return stub(ITestContext.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return xmlTest.getName();
+                case "getSuite":
+                    return suite;
+                case "getCurrentXmlTest":
+                    return xmlTest;
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    public static ITestResult result(final ITestContext context, final Class<?> testClass, final String name) {
+        final ITestClass iTestClass = stub(ITestClass.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getRealClass":
+                    return testClass;
+                case "getName":
+                    return testClass.getName();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+        final Map<String, Object> attributes = new ConcurrentHashMap<String, Object>();
+        final long startMillis = System.currentTimeMillis();
+        return stub(ITestResult.class, (proxy, method, args) -> {
+            switch (method.getName()) {
+                case "getName":
+                    return name;
+                case "getTestContext":
+                    return context;
+                case "getTestClass":
+                    return iTestClass;
+                case "getParameters":
+                    return new Object[0];
+                case "getStartMillis":
+                case "getEndMillis":
+                    return startMillis;
+                case "getStatus":
+                    return ITestResult.SUCCESS;
+                case "isSuccess":
+                    return true;
+                case "getAttribute":
+                    return attributes.get(args[0]);
+                case "setAttribute":
+                    attributes.put((String) args[0], args[1]);
+                    return null;
+                case "removeAttribute":
+                    return attributes.remove(args[0]);
+                case "getAttributeNames":
+                    return attributes.keySet();
+                default:
+                    return defaultValue(method.getReturnType());
+            }
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T stub(Class<T> type, InvocationHandler handler) {
+        return (T) Proxy.newProxyInstance(Stubs.class.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "hashCode":
+                            return System.identityHashCode(proxy);
+                        case "equals":
+                            return proxy == args[0];
+                        case "toString":
+                            return type.getSimpleName() + "@" + Integer.toHexString(System.identityHashCode(proxy));
+                        default:
+                            return handler.invoke(proxy, method, args);
+                    }
+                });
+    }
+
+    private static Object defaultValue(Class<?> type) {
+        if (!type.isPrimitive() || type == void.class) {
+            return null;
+        } else if (type == boolean.class) {
+            return false;
+        } else if (type == long.class) {
+            return 0L;
+        } else if (type == int.class) {
+            return 0;
+        } else if (type == double.class) {
+            return 0.0d;
+        } else if (type == float.class) {
+            return 0.0f;
+        } else if (type == short.class) {
+            return (short) 0;
+        } else if (type == byte.class) {
+            return (byte) 0;
+        }
+        return (char) 0;
+    }
+}
@@ -0,0 +1,48 @@
+package org.qecamp.zalenium.benchmarks;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.ThreadParams;
+import org.qecamp.zalenium.TestMetrics;
+
+/**
+ * Result counters under contention: the suite counter is updated by every test thread, the counter of a test is
+ * looked up by name and updated by its own thread.
+ */
+@Fork(value = 1, jvmArgsAppend = "-Dlogback.configurationFile=logback-benchmarks.xml")
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+@Threads(Grid.THREADS)
+public class TestCountBenchmark {
+    private String testName;
+
+    @Setup(Level.Trial)
+    public void setup(ThreadParams params) {
+        testName = "test-" + params.getThreadIndex();
+    }
+
+    @Benchmark
+    public void suiteIncrement() {
+        TestMetrics.getSuite().incrementSuccess();
+    }
+
+    @Benchmark
+    public void testIncrement() {
+        TestMetrics.getTest(testName).incrementSuccess();
+    }
+}
@@ -0,0 +1,225 @@
+package org.qecamp.zalenium;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.Capabilities;
+import org.openqa.selenium.MutableCapabilities;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.chrome.ChromeOptions;
+import org.openqa.selenium.edge.EdgeOptions;
+import org.openqa.selenium.firefox.FirefoxOptions;
+import org.openqa.selenium.ie.InternetExplorerOptions;
+import org.openqa.selenium.safari.SafariOptions;
+import org.testng.ITestContext;
+import org.yaml.snakeyaml.Yaml;
+import org.yaml.snakeyaml.constructor.Constructor;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Browsers to run the suite on. With -DbrowserMatrix (yaml file or classpath resource, see browser-matrix.yaml) every
+ * test runs once per entry in the same run (see {@link BrowserMatrixListener}), otherwise there is a single entry
+ * from -Dbrowser and -Dplatform.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class BrowserMatrix {
+    // xml test parameter with the name of the entry
+    public static final String PARAMETER = "browserMatrix";
+    private static final String SCREEN_RESOLUTION = "1920x1080";
+
+    private static List<Entry> entries = null;
+
+    @Data
+    public static class Matrix {
+        private List<Entry> browsers = new ArrayList<Entry>();
+    }
+
+    @Data
+    public static class Entry {
+        private String name;
+        private String browser = "chrome";
+        private String platform;
+        private String version;
+        // parallel sessions of this entry
+        private int threads = 1;
+        // screen of the session and of its video, default: -DscreenResolution or 1920x1080
+        private String screenResolution;
+        // chrome and firefox without display and video, default: -Dheadless
+        private Boolean headless;
+        // additional capabilities, override the defaults
+        private Map<String, Object> capabilities = new LinkedHashMap<String, Object>();
+
+        @Getter(AccessLevel.NONE)
+        @Setter(AccessLevel.NONE)
+        private Capabilities built = null;
+
+        // built once, callers copy it before adding the session capabilities
+        public synchronized Capabilities toCapabilities() {
+            if (built == null) {
+                built = build();
+            }
+            return built;
+        }
+
+        // chrome and firefox windows are sized on session creation to fill the screen, other browsers are maximized
+        // once the session is started
+        public boolean isWindowSized() {
+            return "chrome".equals(browser) || "firefox".equals(browser);
+        }
+
+        private boolean isHeadlessBrowser() {
+            boolean enabled = headless != null ? headless : Boolean.getBoolean("headless");
+            if (enabled && !isWindowSized()) {
+                _logger.warn("Headless not supported by the browser:{}, ignored", browser);
+                return false;
+            }
+            return enabled;
+        }
+
+        private MutableCapabilities build() {
+            MutableCapabilities caps;
+            String platformName = platform;
+            String browserVersion = version;
+            String screen = String.valueOf(capabilities.getOrDefault("zal:screenResolution", screenResolution != null
+                    ? screenResolution : System.getProperty("screenResolution", SCREEN_RESOLUTION)));
+            String[] resolution = screen.split("x");
+            boolean headlessBrowser = isHeadlessBrowser();
+            switch (browser) {
+                case "chrome":
+                    caps = new ChromeOptions().setHeadless(headlessBrowser)
+                            .addArguments("--window-size=" + resolution[0] + "," + resolution[1]);
+                    platformName = platformName != null ? platformName : "Linux";
+                    break;
+                case "firefox":
+                    caps = new FirefoxOptions().setHeadless(headlessBrowser)
+                            .addArguments("-width", resolution[0], "-height", resolution[1]);
+                    platformName = platformName != null ? platformName : "Linux";
+                    break;
+                case "ie":
+                    caps = new InternetExplorerOptions();
+                    platformName = "Windows 10";
+                    browserVersion = browserVersion != null ? browserVersion : "11.103";
+                    break;
+                case "edge":
+                    caps = new EdgeOptions();
+                    platformName = "Windows 10";
+                    browserVersion = browserVersion != null ? browserVersion : "17.17134";
+                    break;
+                case "safari":
+                    caps = new SafariOptions();
+                    platformName = "macOS 10.13";
+                    browserVersion = browserVersion != null ? browserVersion : "11.1";
+                    break;
+                default:
+                    throw new WebDriverException("Unsupported browser:" + browser);
+            }
+
+            caps.setCapability("platform", platformName);
+            if (browserVersion != null) {
+                caps.setCapability("version", browserVersion);
+            }
+
+            // saucelabs configurations
+            //caps.setCapability("platform", "Windows 7");
+            //caps.setCapability("tunnelIdentifier", "zalenium");
+
+            caps.setCapability("zal:tz", "Asia/Kolkata");
+            caps.setCapability("zal:screenResolution", screen);
+            caps.setCapability("zal:idleTimeout", "60");
+            // see RecordingPolicy, a headless browser has nothing to record
+            caps.setCapability("zal:recordVideo", String.valueOf(RecordingPolicy.isRecording() && !headlessBrowser));
+            caps.setCapability("zal:build", "1.0.0-SNAPSHOT");
+            for (Map.Entry<String, Object> capability : capabilities.entrySet()) {
+                caps.setCapability(capability.getKey(), capability.getValue());
+            }
+            return caps;
+        }
+    }
+
+    public static synchronized List<Entry> getEntries() {
+        if (entries == null) {
+            String source = System.getProperty("browserMatrix");
+            if (source != null) {
+                entries = load(source);
+            } else {
+                Entry entry = new Entry();
+                entry.setBrowser(System.getProperty("browser", "chrome"));
+                entry.setName(entry.getBrowser());
+                entry.setPlatform(System.getProperty("platform"));
+                entries = Collections.singletonList(entry);
+            }
+        }
+        return entries;
+    }
+
+    private static List<Entry> load(String source) {
+        File file = new File(source);
+        try (InputStream in = file.exists() ? new FileInputStream(file)
+                : BrowserMatrix.class.getClassLoader().getResourceAsStream(source)) {
+            if (in == null) {
+                throw new WebDriverException("Browser matrix not found:" + source);
+            }
+            Matrix matrix = new Yaml(new Constructor(Matrix.class)).load(in);
+            List<Entry> loaded = new ArrayList<Entry>();
+            for (Entry entry : matrix.getBrowsers()) {
+                if (entry.getName() == null) {
+                    entry.setName(entry.getBrowser());
+                }
+                entry.setThreads(Math.max(entry.getThreads(), 1));
+                loaded.add(entry);
+            }
+            if (loaded.isEmpty()) {
+                throw new WebDriverException("Browser matrix has no entry:" + source);
+            }
+            _logger.info("Browser matrix:[{}], entries:{}", source, loaded.size());
+            return Collections.unmodifiableList(loaded);
+        } catch (IOException ex) {
+            throw new WebDriverException("Unable to read the browser matrix:" + source, ex);
+        }
+    }
+
+    // true when the tests run once per matrix entry
+    public static boolean isFanOut() {
+        return System.getProperty("browserMatrix") != null;
+    }
+
+    public static Entry getEntry(String name) {
+        for (Entry entry : getEntries()) {
+            if (entry.getName().equals(name)) {
+                return entry;
+            }
+        }
+        return getEntries().get(0);
+    }
+
+    // entry name of the test, null when the tests are not fanned out
+    public static String getEntryName(ITestContext testContext) {
+        return testContext.getCurrentXmlTest().getParameter(PARAMETER);
+    }
+
+    public static Entry getEntry(ITestContext testContext) {
+        return getEntry(getEntryName(testContext));
+    }
+
+    public static int getThreads() {
+        int threads = 0;
+        for (Entry entry : getEntries()) {
+            threads += entry.getThreads();
+        }
+        return threads;
+    }
+}
@@ -0,0 +1,86 @@
+package org.qecamp.zalenium;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fans out the tests on the entries of the browser matrix (see {@link BrowserMatrix}), every test runs once per
+ * entry and all the entries run in parallel. The thread count is the sum of the threads of the entries, the tests
+ * are scheduled in rounds of the threads of each entry. First step of {@link SuitePlanListener}.
+ */
+@Slf4j
+public class BrowserMatrixListener {
+
+    public void alter(List<XmlSuite> suites) {
+        if (!BrowserMatrix.isFanOut()) {
+            return;
+        }
+        for (XmlSuite suite : suites) {
+            List<XmlTest> tests = new ArrayList<XmlTest>();
+            // XmlTest.clone() adds the copy to the suite, iterate over the declared tests
+            for (XmlTest test : new ArrayList<XmlTest>(suite.getTests())) {
+                for (BrowserMatrix.Entry entry : BrowserMatrix.getEntries()) {
+                    tests.add(copy(test, entry));
+                }
+            }
+            suite.setTests(schedule(tests));
+            suite.setParallel(XmlSuite.ParallelMode.TESTS);
+            suite.setThreadCount(Math.max(BrowserMatrix.getThreads(), 2));
+            _logger.info("Browser matrix fan out, tests:{}, threadCount:{}", tests.size(), suite.getThreadCount());
+        }
+    }
+
+    // rounds of 'threads' tests of each entry, in the given order within an entry. The tests start in this order on
+    // the threads of the suite: a round starts as many tests of an entry as it has threads, the tests of an entry
+    // seldom wait for its sessions (see WebDriverFactory.acquirePermits)
+    static List<XmlTest> schedule(List<XmlTest> tests) {
+        Map<String, List<XmlTest>> entries = new LinkedHashMap<String, List<XmlTest>>();
+        for (XmlTest test : tests) {
+            String entryName = test.getParameter(BrowserMatrix.PARAMETER);
+            List<XmlTest> entryTests = entries.get(entryName);
+            if (entryTests == null) {
+                entryTests = entries.computeIfAbsent(entryName, k -> new ArrayList<XmlTest>());
+            }
+            entryTests.add(test);
+        }
+        List<XmlTest> scheduled = new ArrayList<XmlTest>(tests.size());
+        for (int round = 0; scheduled.size() < tests.size(); round++) {
+            for (Map.Entry<String, List<XmlTest>> entry : entries.entrySet()) {
+                int threads = entry.getKey() != null ? BrowserMatrix.getEntry(entry.getKey()).getThreads() : 1;
+                int from = Math.min(round * threads, entry.getValue().size());
+                scheduled.addAll(entry.getValue().subList(from, Math.min(from + threads, entry.getValue().size())));
+            }
+        }
+        return scheduled;
+    }
+
+    private XmlTest copy(XmlTest test, BrowserMatrix.Entry entry) {
+        XmlTest copy = (XmlTest) test.clone();
+        copy.setName(test.getName() + " [" + entry.getName() + "]");
+        Map<String, String> parameters = new HashMap<String, String>(test.getLocalParameters());
+        parameters.put(BrowserMatrix.PARAMETER, entry.getName());
+        copy.setParameters(parameters);
+        // a thread of the test holds a session, the entry has no more than its threads (see
+        // WebDriverFactory.acquirePermits)
+        if (copy.getThreadCount() > entry.getThreads()) {
+            copy.setThreadCount(entry.getThreads());
+        }
+        List<XmlClass> classes = new ArrayList<XmlClass>();
+        for (XmlClass xmlClass : test.getXmlClasses()) {
+            XmlClass classCopy = (XmlClass) xmlClass.clone();
+            classCopy.setXmlTest(copy);
+            classes.add(classCopy);
+        }
+        copy.setXmlClasses(classes);
+        return copy;
+    }
+}
@@ -0,0 +1,152 @@
+package org.qecamp.zalenium;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Latency, payload size and errors of the webdriver commands, per command name and per session. Recorded by
+ * {@link TimedCommandExecutor}, exported as json to -DcommandMetricsFile (default: target/command-metrics.json).
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class CommandMetrics {
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    private static final ConcurrentHashMap<String, CommandStats> COMMANDS = new ConcurrentHashMap<String, CommandStats>();
+    private static final ConcurrentHashMap<String, CommandStats> SESSIONS = new ConcurrentHashMap<String, CommandStats>();
+    // session creation and the first page load, see WebDriverFactory.initialize
+    @Getter
+    private static final LatencyHistogram sessionStartup = new LatencyHistogram();
+
+    @Getter
+    public static class CommandStats {
+        private final LatencyHistogram latency = new LatencyHistogram();
+        private final LongAdder errors = new LongAdder();
+        // approximate payload sizes in characters
+        private final LongAdder requestSize = new LongAdder();
+        private final LongAdder responseSize = new LongAdder();
+
+        void record(long duration, long request, long response, boolean error) {
+            latency.record(duration);
+            requestSize.add(request);
+            responseSize.add(response);
+            if (error) {
+                errors.increment();
+            }
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new LinkedHashMap<String, Object>();
+            map.put("count", latency.getCount());
+            map.put("errors", errors.sum());
+            map.put("p50", latency.getPercentile(50));
+            map.put("p95", latency.getPercentile(95));
+            map.put("p99", latency.getPercentile(99));
+            map.put("max", latency.getMax());
+            map.put("mean", latency.getMean());
+            map.put("requestSize", requestSize.sum());
+            map.put("responseSize", responseSize.sum());
+            return map;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder
+                    .append(latency)
+                    .append(", errors:").append(errors.sum())
+                    .append(", request_size:").append(requestSize.sum())
+                    .append(", response_size:").append(responseSize.sum());
+            return builder.toString();
+        }
+    }
+
+    public static void record(String command, String sessionId, long duration, long request, long response,
+            boolean error) {
+        get(COMMANDS, command).record(duration, request, response, error);
+        if (sessionId != null) {
+            get(SESSIONS, sessionId).record(duration, request, response, error);
+        }
+    }
+
+    private static CommandStats get(ConcurrentHashMap<String, CommandStats> map, String key) {
+        CommandStats stats = map.get(key);
+        if (stats == null) {
+            stats = map.computeIfAbsent(key, k -> new CommandStats());
+        }
+        return stats;
+    }
+
+    public static Map<String, CommandStats> getCommands() {
+        return Collections.unmodifiableMap(COMMANDS);
+    }
+
+    public static Map<String, CommandStats> getSessions() {
+        return Collections.unmodifiableMap(SESSIONS);
+    }
+
+    // approximate size of a command parameter or response value, without serializing it
+    @SuppressWarnings("unchecked")
+    public static long sizeOf(Object value) {
+        if (value == null) {
+            return 0;
+        } else if (value instanceof CharSequence) {
+            return ((CharSequence) value).length();
+        } else if (value instanceof Map) {
+            long size = 0;
+            for (Map.Entry<Object, Object> entry : ((Map<Object, Object>) value).entrySet()) {
+                size += sizeOf(entry.getKey()) + sizeOf(entry.getValue());
+            }
+            return size;
+        } else if (value instanceof Collection) {
+            long size = 0;
+            for (Object item : (Collection<Object>) value) {
+                size += sizeOf(item);
+            }
+            return size;
+        }
+        return 8;
+    }
+
+    public static void export() {
+        Map<String, Object> json = new LinkedHashMap<String, Object>();
+        Map<String, Object> commands = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, CommandStats> entry : COMMANDS.entrySet()) {
+            commands.put(entry.getKey(), entry.getValue().toMap());
+        }
+        Map<String, Object> sessions = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, CommandStats> entry : SESSIONS.entrySet()) {
+            sessions.put(entry.getKey(), entry.getValue().toMap());
+        }
+        Map<String, Object> startup = new LinkedHashMap<String, Object>();
+        startup.put("count", sessionStartup.getCount());
+        startup.put("p50", sessionStartup.getPercentile(50));
+        startup.put("p95", sessionStartup.getPercentile(95));
+        startup.put("max", sessionStartup.getMax());
+        json.put("sessionStartup", startup);
+        json.put("commands", commands);
+        json.put("sessions", sessions);
+        File file = new File(System.getProperty("commandMetricsFile", "target/command-metrics.json"));
+        try {
+            if (file.getAbsoluteFile().getParentFile() != null) {
+                file.getAbsoluteFile().getParentFile().mkdirs();
+            }
+            MAPPER.writeValue(file, json);
+        } catch (IOException ex) {
+            _logger.warn("Unable to write the command metrics:[{}]", file.getAbsolutePath(), ex);
+        }
+    }
+}
@@ -0,0 +1,241 @@
+package org.qecamp.zalenium;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.openqa.selenium.By;
+import org.openqa.selenium.WebElement;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Reads many elements in a single executeScript round trip. Results are cached per page, the cache is dropped when
+ * the test acts on the page (click, navigation) or when the page marker or the DOM mutation count reported by the
+ * browser has changed. A query answered from the cache still reads the marker and the mutation count, one small
+ * script instead of the element reads.
+ */
+@Slf4j
+public class DomQuery {
+    // dropped when the session is quit, see SessionRegistry
+    private static final Map<RemoteWebDriver, DomQuery> QUERIES = Collections
+            .synchronizedMap(new HashMap<RemoteWebDriver, DomQuery>());
+
+    // arguments[0]: list of [locator type, locator value]
+    private static final String SCRIPT = ""
+            + "if (!window.__qecampMarker) {"
+            + "  window.__qecampMarker = String(new Date().getTime()) + String(Math.random()).substring(2);"
+            + "  window.__qecampMutations = 0;"
+            + "  if (window.MutationObserver) {"
+            + "    new MutationObserver(function(m) { window.__qecampMutations += m.length; }).observe("
+            + "      document.documentElement, {childList: true, subtree: true, attributes: true, characterData: true});"
+            + "  }"
+            + "}"
+            + "function find(type, value) {"
+            + "  switch (type) {"
+            + "    case 'id': return document.getElementById(value);"
+            + "    case 'name': return document.getElementsByName(value)[0] || null;"
+            + "    case 'className': return document.getElementsByClassName(value)[0] || null;"
+            + "    case 'tagName': return document.getElementsByTagName(value)[0] || null;"
+            + "    case 'cssSelector': return document.querySelector(value);"
+            + "    case 'xpath': return document.evaluate(value, document, null,"
+            + "      XPathResult.FIRST_ORDERED_NODE_TYPE, null).singleNodeValue;"
+            + "    case 'linkText': case 'partialLinkText':"
+            + "      var links = document.getElementsByTagName('a');"
+            + "      for (var i = 0; i < links.length; i++) {"
+            + "        var t = (links[i].innerText || links[i].textContent || '').trim();"
+            + "        if (type === 'linkText' ? t === value : t.indexOf(value) >= 0) { return links[i]; }"
+            + "      }"
+            + "  }"
+            + "  return null;"
+            + "}"
+            + "var results = [];"
+            + "for (var l = 0; l < arguments[0].length; l++) {"
+            + "  var e = find(arguments[0][l][0], arguments[0][l][1]);"
+            + "  if (!e) { results.push(null); continue; }"
+            + "  var attributes = {};"
+            + "  for (var a = 0; a < e.attributes.length; a++) { attributes[e.attributes[a].name] = e.attributes[a].value; }"
+            + "  var rect = e.getBoundingClientRect(); var style = window.getComputedStyle(e);"
+            + "  results.push({text: (e.innerText || e.textContent || '').trim(), attributes: attributes,"
+            + "    visible: rect.width > 0 && rect.height > 0 && style.visibility !== 'hidden' && style.display !== 'none'});"
+            + "}"
+            + "return {marker: window.__qecampMarker, mutations: window.__qecampMutations, results: results};";
+
+    // marker and mutation count of the page, null on a page not read yet
+    private static final String CHECK_SCRIPT = "return window.__qecampMarker"
+            + " ? {marker: window.__qecampMarker, mutations: window.__qecampMutations} : null;";
+
+    private final RemoteWebDriver webDriver;
+    private final Map<By, ElementSnapshot> cache = new HashMap<By, ElementSnapshot>();
+    private Object marker = null;
+    private Object mutations = null;
+
+    private DomQuery(RemoteWebDriver webDriver) {
+        this.webDriver = webDriver;
+    }
+
+    public static DomQuery of(RemoteWebDriver webDriver) {
+        synchronized (QUERIES) {
+            DomQuery query = QUERIES.get(webDriver);
+            if (query == null) {
+                query = new DomQuery(webDriver);
+                QUERIES.put(webDriver, query);
+            }
+            return query;
+        }
+    }
+
+    // call it when the session is quit
+    static void forget(RemoteWebDriver webDriver) {
+        QUERIES.remove(webDriver);
+    }
+
+    // call it when the page is changed outside of the tests, ie: session reset
+    public static void invalidate(RemoteWebDriver webDriver) {
+        DomQuery query = QUERIES.get(webDriver);
+        if (query != null) {
+            query.invalidate();
+        }
+    }
+
+    public synchronized void invalidate() {
+        cache.clear();
+        marker = null;
+        mutations = null;
+    }
+
+    // returns the snapshots in the order of the identifiers, cached values are returned while the page is unchanged
+    public synchronized Map<By, ElementSnapshot> query(By... identifiers) {
+        Map<By, ElementSnapshot> snapshots = new LinkedHashMap<By, ElementSnapshot>();
+        boolean cached = true;
+        for (By identifier : identifiers) {
+            ElementSnapshot snapshot = cache.get(identifier);
+            if (snapshot == null) {
+                cached = false;
+                break;
+            }
+            snapshots.put(identifier, snapshot);
+        }
+        if (cached && isUnchanged()) {
+            return snapshots;
+        }
+        snapshots.clear();
+
+        List<By> scripted = new ArrayList<By>();
+        List<List<String>> locators = new ArrayList<List<String>>();
+        for (By identifier : identifiers) {
+            List<String> locator = toLocator(identifier);
+            if (locator != null) {
+                scripted.add(identifier);
+                locators.add(locator);
+            }
+        }
+        if (!locators.isEmpty()) {
+            read(scripted, locators);
+        }
+        for (By identifier : identifiers) {
+            ElementSnapshot snapshot = cache.get(identifier);
+            if (snapshot == null) {
+                // locator not supported by the script, read it with the driver
+                snapshot = readWithDriver(identifier);
+                cache.put(identifier, snapshot);
+            }
+            snapshots.put(identifier, snapshot);
+        }
+        return snapshots;
+    }
+
+    public ElementSnapshot query(By identifier) {
+        return query(new By[] { identifier }).get(identifier);
+    }
+
+    // the page the cache was read from is still there and was not mutated
+    @SuppressWarnings("unchecked")
+    private boolean isUnchanged() {
+        // read with the driver only, nothing to check against
+        if (marker == null) {
+            cache.clear();
+            return false;
+        }
+        Object response = webDriver.executeScript(CHECK_SCRIPT);
+        if (response instanceof Map && marker.equals(((Map<String, Object>) response).get("marker"))
+                && mutations.equals(((Map<String, Object>) response).get("mutations"))) {
+            return true;
+        }
+        invalidate();
+        return false;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void read(List<By> identifiers, List<List<String>> locators) {
+        Object response = webDriver.executeScript(SCRIPT, locators);
+        if (!(response instanceof Map)) {
+            _logger.debug("Unexpected response for the batched query:[{}]", response);
+            return;
+        }
+        Map<String, Object> result = (Map<String, Object>) response;
+        // page changed since the last read, drop everything we know
+        if (marker != null && (!marker.equals(result.get("marker")) || !mutations.equals(result.get("mutations")))) {
+            cache.clear();
+        }
+        marker = result.get("marker");
+        mutations = result.get("mutations");
+        List<Object> results = (List<Object>) result.get("results");
+        for (int index = 0; index < identifiers.size() && results != null && index < results.size(); index++) {
+            Object item = results.get(index);
+            if (item instanceof Map) {
+                Map<String, Object> element = (Map<String, Object>) item;
+                Map<String, String> attributes = new HashMap<String, String>();
+                if (element.get("attributes") instanceof Map) {
+                    for (Map.Entry<String, Object> entry : ((Map<String, Object>) element.get("attributes")).entrySet()) {
+                        attributes.put(entry.getKey(), String.valueOf(entry.getValue()));
+                    }
+                }
+                cache.put(identifiers.get(index), new ElementSnapshot(true, Boolean.TRUE.equals(element.get("visible")),
+                        (String) element.get("text"), attributes));
+            } else {
+                cache.put(identifiers.get(index), ElementSnapshot.NOT_PRESENT);
+            }
+        }
+    }
+
+    private ElementSnapshot readWithDriver(By identifier) {
+        List<WebElement> elements = webDriver.findElements(identifier);
+        if (elements.isEmpty()) {
+            return ElementSnapshot.NOT_PRESENT;
+        }
+        WebElement element = elements.get(0);
+        return new ElementSnapshot(true, element.isDisplayed(), element.getText(),
+                Collections.<String, String> emptyMap());
+    }
+
+    // By.toString() format: "By.<type>: <value>"
+    private static List<String> toLocator(By identifier) {
+        String description = identifier.toString();
+        int separator = description.indexOf(": ");
+        if (!description.startsWith("By.") || separator < 0) {
+            return null;
+        }
+        String type = description.substring(3, separator);
+        switch (type) {
+            case "id":
+            case "name":
+            case "className":
+            case "tagName":
+            case "cssSelector":
+            case "xpath":
+            case "linkText":
+            case "partialLinkText":
+                List<String> locator = new ArrayList<String>(2);
+                locator.add(type);
+                locator.add(description.substring(separator + 2));
+                return locator;
+            default:
+                return null;
+        }
+    }
+}
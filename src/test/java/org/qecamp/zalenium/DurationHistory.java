@@ -0,0 +1,187 @@
+package org.qecamp.zalenium;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+
+import lombok.AccessLevel;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Durations (milliseconds) of tests and classes from the previous runs, used to order and balance the next run, and
+ * flakiness of the methods (share of the recent runs with a failure or a retry, see {@link RecordingPolicy}). Stored
+ * as json in -DdurationHistory (default: test-history/durations.json), new values are merged as a moving average.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class DurationHistory {
+    private static final ObjectMapper MAPPER = new ObjectMapper().enable(SerializationFeature.INDENT_OUTPUT);
+    // weight of the latest run in the moving average
+    private static final double WEIGHT = 0.5;
+
+    private static History history = null;
+    private static final ConcurrentHashMap<String, Long> RUN_TESTS = new ConcurrentHashMap<String, Long>();
+    private static final ConcurrentHashMap<String, LongAdder> RUN_CLASSES = new ConcurrentHashMap<String, LongAdder>();
+    private static final ConcurrentHashMap<String, Boolean> RUN_METHODS = new ConcurrentHashMap<String, Boolean>();
+
+    @Data
+    public static class History {
+        private Map<String, Long> tests = new TreeMap<String, Long>();
+        private Map<String, Long> classes = new TreeMap<String, Long>();
+        // 0: passed on the first attempt in the recent runs, 1: failed or retried in all of them
+        private Map<String, Double> flakiness = new TreeMap<String, Double>();
+    }
+
+    public static File getFile() {
+        return new File(System.getProperty("durationHistory", "test-history/durations.json"));
+    }
+
+    public static synchronized History getHistory() {
+        if (history == null) {
+            history = new History();
+            File file = getFile();
+            if (file.exists()) {
+                try {
+                    history = MAPPER.readValue(file, History.class);
+                } catch (IOException ex) {
+                    _logger.warn("Unable to read the duration history:[{}]", file.getAbsolutePath(), ex);
+                }
+            }
+        }
+        return history;
+    }
+
+    // expected duration of the test, null when not known
+    public static Long getTestDuration(String testName) {
+        return getHistory().getTests().get(testName);
+    }
+
+    public static Long getClassDuration(String className) {
+        return getHistory().getClasses().get(className);
+    }
+
+    // flakiness of the method, null when not known
+    public static Double getFlakiness(String method) {
+        return getHistory().getFlakiness().get(method);
+    }
+
+    public static void recordTest(String testName, long duration) {
+        RUN_TESTS.put(testName, duration);
+    }
+
+    public static void recordClass(String className, long duration) {
+        LongAdder total = RUN_CLASSES.get(className);
+        if (total == null) {
+            total = RUN_CLASSES.computeIfAbsent(className, k -> new LongAdder());
+        }
+        total.add(duration);
+    }
+
+    // methods of the run, failed or retried
+    public static void recordFlakiness(ResultJournal.Summary summary) {
+        for (String method : summary.getMethods().keySet()) {
+            RUN_METHODS.put(method, summary.getUnstable().contains(method));
+        }
+    }
+
+    // merge the durations of this run and write the history file. A shard does not write it, all the shards must
+    // read the same history to compute the same assignment, the merged results update it (see ResultMerge)
+    public static synchronized void save() {
+        if (ShardListener.getShard() != null) {
+            _logger.debug("Shard {}, duration history not updated", ShardListener.getShard());
+            return;
+        }
+        if (ResumeListener.isResume()) {
+            // the durations of the resumed tests cover a part of their methods only
+            _logger.debug("Resumed run, duration history not updated");
+            return;
+        }
+        History current = getHistory();
+        for (Map.Entry<String, Long> entry : RUN_TESTS.entrySet()) {
+            current.getTests().put(entry.getKey(), merge(current.getTests().get(entry.getKey()), entry.getValue()));
+        }
+        for (Map.Entry<String, LongAdder> entry : RUN_CLASSES.entrySet()) {
+            current.getClasses().put(entry.getKey(),
+                    merge(current.getClasses().get(entry.getKey()), entry.getValue().sum()));
+        }
+        for (Map.Entry<String, Boolean> entry : RUN_METHODS.entrySet()) {
+            Double previous = current.getFlakiness().get(entry.getKey());
+            double latest = entry.getValue() ? 1 : 0;
+            current.getFlakiness().put(entry.getKey(),
+                    previous != null ? previous * (1 - WEIGHT) + latest * WEIGHT : latest);
+        }
+        File file = getFile();
+        try {
+            if (file.getAbsoluteFile().getParentFile() != null) {
+                file.getAbsoluteFile().getParentFile().mkdirs();
+            }
+            MAPPER.writeValue(file, current);
+        } catch (IOException ex) {
+            _logger.warn("Unable to write the duration history:[{}]", file.getAbsolutePath(), ex);
+        }
+    }
+
+    private static long merge(Long previous, long latest) {
+        if (previous == null) {
+            return latest;
+        }
+        return Math.round(previous * (1 - WEIGHT) + latest * WEIGHT);
+    }
+
+    // unknown durations are replaced by the mean of the known ones, null when nothing is known
+    public static List<Long> expected(List<Long> durations) {
+        long sum = 0;
+        int known = 0;
+        for (Long duration : durations) {
+            if (duration != null) {
+                sum += duration;
+                known++;
+            }
+        }
+        if (known == 0) {
+            return null;
+        }
+        List<Long> expected = new ArrayList<Long>(durations.size());
+        for (Long duration : durations) {
+            expected.add(duration != null ? duration : sum / known);
+        }
+        return expected;
+    }
+
+    // makespan when the durations are run in the given order on 'threads' workers, each job goes to the first free
+    public static long makespan(List<Long> durations, int threads) {
+        PriorityQueue<Long> workers = new PriorityQueue<Long>();
+        for (int index = 0; index < Math.max(threads, 1); index++) {
+            workers.add(0L);
+        }
+        long makespan = 0;
+        for (Long duration : durations) {
+            long end = workers.poll() + duration;
+            workers.add(end);
+            makespan = Math.max(makespan, end);
+        }
+        return makespan;
+    }
+
+    // no schedule can be shorter than this
+    public static long lowerBound(List<Long> durations, int threads) {
+        long sum = 0;
+        long longest = 0;
+        for (Long duration : durations) {
+            sum += duration;
+            longest = Math.max(longest, duration);
+        }
+        return Math.max(longest, sum / Math.max(threads, 1));
+    }
+}
@@ -0,0 +1,72 @@
+package org.qecamp.zalenium;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Orders the tests and the classes of each test longest expected duration first (see {@link DurationHistory}), so
+ * a long test does not start last and run alone at the end of a parallel run. Tests without history keep their
+ * declared order. Last step of {@link SuitePlanListener}.
+ */
+@Slf4j
+public class DurationOrderListener {
+
+    public void alter(List<XmlSuite> suites) {
+        for (XmlSuite suite : suites) {
+            List<XmlTest> tests = new ArrayList<XmlTest>(suite.getTests());
+            List<Long> durations = new ArrayList<Long>();
+            for (XmlTest test : tests) {
+                durations.add(DurationHistory.getTestDuration(test.getName()));
+            }
+            final List<Long> expected = DurationHistory.expected(durations);
+            if (expected != null) {
+                final List<XmlTest> declared = new ArrayList<XmlTest>(tests);
+                // stable sort, equal durations keep the declared order
+                Collections.sort(tests, Comparator.comparing((XmlTest test) -> expected.get(declared.indexOf(test)))
+                        .reversed());
+                if (BrowserMatrix.isFanOut()) {
+                    // longest first within each browser, keeps the rounds of the browser threads
+                    tests = BrowserMatrixListener.schedule(tests);
+                }
+                suite.setTests(tests);
+                if (_logger.isDebugEnabled()) {
+                    List<String> names = new ArrayList<String>();
+                    for (XmlTest test : tests) {
+                        names.add(test.getName());
+                    }
+                    _logger.debug("Tests ordered by expected duration:{}", names);
+                }
+            }
+            for (XmlTest test : tests) {
+                orderClasses(test);
+            }
+        }
+    }
+
+    private void orderClasses(XmlTest test) {
+        List<XmlClass> classes = new ArrayList<XmlClass>(test.getXmlClasses());
+        if (classes.size() < 2) {
+            return;
+        }
+        List<Long> durations = new ArrayList<Long>();
+        for (XmlClass xmlClass : classes) {
+            durations.add(DurationHistory.getClassDuration(xmlClass.getName()));
+        }
+        final List<Long> expected = DurationHistory.expected(durations);
+        if (expected == null) {
+            return;
+        }
+        final List<XmlClass> declared = new ArrayList<XmlClass>(classes);
+        Collections.sort(classes, Comparator.comparing((XmlClass xmlClass) -> expected.get(declared.indexOf(xmlClass)))
+                .reversed());
+        test.setXmlClasses(classes);
+    }
+}
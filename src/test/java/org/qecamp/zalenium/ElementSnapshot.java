@@ -0,0 +1,28 @@
+package org.qecamp.zalenium;
+
+import java.util.Collections;
+import java.util.Map;
+
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.ToString;
+
+/**
+ * State of an element read by a batched query, see {@link DomQuery}.
+ */
+@Getter
+@ToString
+@AllArgsConstructor
+public class ElementSnapshot {
+    public static final ElementSnapshot NOT_PRESENT = new ElementSnapshot(false, false, null,
+            Collections.<String, String> emptyMap());
+
+    private final boolean present;
+    private final boolean visible;
+    private final String text;
+    private final Map<String, String> attributes;
+
+    public String getAttribute(String name) {
+        return attributes.get(name);
+    }
+}
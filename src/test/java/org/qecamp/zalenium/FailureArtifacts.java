@@ -0,0 +1,223 @@
+package org.qecamp.zalenium;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+import org.openqa.selenium.OutputType;
+import org.openqa.selenium.logging.LogEntry;
+import org.openqa.selenium.logging.LogType;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.testng.ITestResult;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Screenshot, page source, current url and browser console log of a failed test, written to -DartifactsDir (default:
+ * target/failure-artifacts). The remote grabs run on a grabber thread while the test thread waits for them, with a
+ * deadline of -DartifactsTimeout seconds (default: 10), the page keeps the state of the failure. A grab still running
+ * after the deadline would drive the session with the next test: the session is marked dead (see
+ * {@link SessionHealth}), its commands fail at once and it is replaced instead of returned to the pool. Compression
+ * and disk writes run in a background pool.
+ * A session has at most -DartifactsInFlight captures (default: 1) not written yet, further failures are not captured.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class FailureArtifacts {
+    // sessionId -> captures not written yet, dropped when the session is quit (see SessionRegistry)
+    private static final ConcurrentHashMap<String, Semaphore> IN_FLIGHT = new ConcurrentHashMap<String, Semaphore>();
+    private static final LatencyHistogram CAPTURE_TIME = new LatencyHistogram();
+    private static final LatencyHistogram WRITE_TIME = new LatencyHistogram();
+    private static final LongAdder CAPTURED = new LongAdder();
+    private static final LongAdder DROPPED = new LongAdder();
+    private static final LongAdder TIMEOUTS = new LongAdder();
+    private static final LongAdder SCREENSHOT_BYTES = new LongAdder();
+    private static final LongAdder SOURCE_BYTES = new LongAdder();
+    private static final LongAdder CONSOLE_BYTES = new LongAdder();
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+    private static final ExecutorService GRABBER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "artifacts-grab-" + THREAD_NUMBER.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static final ExecutorService WRITER = Executors.newFixedThreadPool(
+            Integer.getInteger("artifactsIoThreads", 2), runnable -> {
+                Thread thread = new Thread(runnable, "artifacts-io-" + THREAD_NUMBER.getAndIncrement());
+                thread.setDaemon(true);
+                return thread;
+            });
+
+    // filled by the grabber, a grab not done before the deadline stays null
+    private static class Artifacts {
+        private volatile String url;
+        private volatile byte[] screenshot;
+        private volatile String source;
+        private volatile String console;
+    }
+
+    // call it when the session is quit, the writes still queued release a permit nobody waits for
+    static void forget(String sessionId) {
+        IN_FLIGHT.remove(sessionId);
+    }
+
+    // grabs the artifacts of the failed test and queues the writes, returns the directory or null when not captured
+    public static File capture(ITestResult result, RemoteWebDriver webDriver) {
+        String sessionId = String.valueOf(webDriver.getSessionId());
+        Semaphore permits = IN_FLIGHT.get(sessionId);
+        if (permits == null) {
+            permits = IN_FLIGHT.computeIfAbsent(sessionId,
+                    k -> new Semaphore(Integer.getInteger("artifactsInFlight", 1)));
+        }
+        if (!permits.tryAcquire()) {
+            DROPPED.increment();
+            _logger.debug("Failure artifacts not captured, capture in flight, SessionId:[{}]", sessionId);
+            return null;
+        }
+        final Semaphore release = permits;
+        final Artifacts artifacts = new Artifacts();
+        long start = System.currentTimeMillis();
+        Future<?> grab = GRABBER.submit(() -> grab(webDriver, artifacts));
+        try {
+            grab.get(Long.getLong("artifactsTimeout", 10L), TimeUnit.SECONDS);
+        } catch (TimeoutException ex) {
+            TIMEOUTS.increment();
+            grab.cancel(true);
+            _logger.warn("Failure artifacts grab timed out, SessionId:[{}]", sessionId);
+            SessionHealth.markDead(webDriver, "failure artifacts not grabbed in time");
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } catch (Exception ex) {
+            _logger.debug("Failure artifacts grab failed, SessionId:[{}]", sessionId, ex);
+        }
+        CAPTURE_TIME.record(System.currentTimeMillis() - start);
+        final File directory = getDirectory(result);
+        try {
+            WRITER.execute(() -> {
+                try {
+                    write(directory, artifacts);
+                } finally {
+                    release.release();
+                }
+            });
+        } catch (RuntimeException ex) {
+            release.release();
+            throw ex;
+        }
+        CAPTURED.increment();
+        return directory;
+    }
+
+    private static void grab(RemoteWebDriver webDriver, Artifacts artifacts) {
+        try {
+            artifacts.url = webDriver.getCurrentUrl();
+            artifacts.screenshot = webDriver.getScreenshotAs(OutputType.BYTES);
+            artifacts.source = webDriver.getPageSource();
+        } catch (Exception ex) {
+            _logger.debug("Unable to grab the page, SessionId:[{}]", webDriver.getSessionId(), ex);
+        }
+        try {
+            StringBuilder builder = new StringBuilder();
+            for (LogEntry entry : webDriver.manage().logs().get(LogType.BROWSER)) {
+                builder.append(entry).append('\n');
+            }
+            artifacts.console = builder.toString();
+        } catch (Exception ex) {
+            // not supported by all the browsers
+            _logger.trace("Browser console log not available, SessionId:[{}]", webDriver.getSessionId(), ex);
+        }
+    }
+
+    private static File getDirectory(ITestResult result) {
+        String test = result.getTestContext().getName().replaceAll("[^A-Za-z0-9._-]+", "_");
+        String method = result.getTestClass().getRealClass().getSimpleName() + "." + result.getName();
+        return new File(new File(System.getProperty("artifactsDir", "target/failure-artifacts"), test),
+                method + "-" + System.currentTimeMillis());
+    }
+
+    private static void write(File directory, Artifacts artifacts) {
+        long start = System.currentTimeMillis();
+        try {
+            Path path = Files.createDirectories(directory.toPath());
+            if (artifacts.url != null) {
+                write(path.resolve("url.txt"), artifacts.url.getBytes(StandardCharsets.UTF_8));
+            }
+            if (artifacts.screenshot != null) {
+                // png is compressed already
+                SCREENSHOT_BYTES.add(write(path.resolve("screenshot.png"), artifacts.screenshot));
+            }
+            if (artifacts.source != null) {
+                SOURCE_BYTES.add(write(path.resolve("page-source.html.gz"), gzip(artifacts.source)));
+            }
+            if (artifacts.console != null) {
+                CONSOLE_BYTES.add(write(path.resolve("console.log.gz"), gzip(artifacts.console)));
+            }
+        } catch (IOException ex) {
+            _logger.error("Unable to write the failure artifacts:[{}]", directory.getAbsolutePath(), ex);
+        }
+        WRITE_TIME.record(System.currentTimeMillis() - start);
+    }
+
+    private static long write(Path path, byte[] data) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        return data.length;
+    }
+
+    private static byte[] gzip(String text) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(Math.max(text.length() / 4, 256));
+        try (GZIPOutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(text.getBytes(StandardCharsets.UTF_8));
+        }
+        return bytes.toByteArray();
+    }
+
+    // waits for the queued writes
+    public static void close(long timeout, TimeUnit unit) {
+        WRITER.shutdown();
+        try {
+            if (!WRITER.awaitTermination(timeout, unit)) {
+                _logger.warn("Failure artifacts not written within {} {}", timeout, unit);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String stats() {
+        StringBuilder builder = new StringBuilder();
+        builder
+                .append("captured:").append(CAPTURED.sum())
+                .append(", dropped:").append(DROPPED.sum())
+                .append(", timeouts:").append(TIMEOUTS.sum())
+                .append(", screenshot_bytes:").append(SCREENSHOT_BYTES.sum())
+                .append(", source_bytes:").append(SOURCE_BYTES.sum())
+                .append(", console_bytes:").append(CONSOLE_BYTES.sum())
+                .append(", capture_time:[").append(CAPTURE_TIME).append("]")
+                .append(", write_time:[").append(WRITE_TIME).append("]");
+        return builder.toString();
+    }
+}
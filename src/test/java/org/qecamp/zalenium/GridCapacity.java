@@ -0,0 +1,139 @@
+package org.qecamp.zalenium;
+
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.WebDriverException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Free slots of the selenium grid, read from the hub api (slotCounts of /grid/api/hub) of the hubs in rotation (see
+ * {@link HubRouter}). Session creation is admitted only when the grid has a free slot, instead of queuing the request
+ * on the hub.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class GridCapacity {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int HTTP_TIMEOUT = 2000;
+    // status is cached for this duration, keeps the hub api calls cheap when many threads wait
+    private static final long STATUS_TTL = 500L;
+
+    // sessions admitted and not yet created, the hub does not count them yet
+    private static final AtomicInteger STARTING = new AtomicInteger(0);
+    private static volatile long statusTimestamp = 0;
+    private static volatile int statusFree = -1;
+
+    // -DgridStatusUrl overrides the status url of a single hub
+    public static String getStatusUrl(HubRouter.Hub hub) {
+        if (HubRouter.getHubs().size() == 1) {
+            return System.getProperty("gridStatusUrl", hub.getStatusUrl());
+        }
+        return hub.getStatusUrl();
+    }
+
+    // free slots on the grid, -1 when the status is not available
+    public static int getFreeSlots() {
+        long now = System.currentTimeMillis();
+        if (now - statusTimestamp > STATUS_TTL) {
+            statusFree = readFreeSlots();
+            statusTimestamp = now;
+        }
+        return statusFree;
+    }
+
+    // free slots of the hubs in rotation, -1 when no status is available
+    public static int readFreeSlots() {
+        int total = -1;
+        for (HubRouter.Hub hub : HubRouter.getHubs()) {
+            if (hub.isOpen()) {
+                continue;
+            }
+            int free = readFreeSlots(getStatusUrl(hub));
+            if (free >= 0) {
+                total = Math.max(total, 0) + free;
+            }
+        }
+        return total;
+    }
+
+    public static int readFreeSlots(String statusUrl) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(statusUrl).openConnection();
+            connection.setConnectTimeout(HTTP_TIMEOUT);
+            connection.setReadTimeout(HTTP_TIMEOUT);
+            try (InputStream stream = connection.getInputStream()) {
+                JsonNode free = MAPPER.readTree(stream).path("slotCounts").path("free");
+                return free.isNumber() ? free.asInt() : -1;
+            }
+        } catch (Exception ex) {
+            _logger.debug("Grid status not available, url:[{}], {}", statusUrl, ex.toString());
+            return -1;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // admitted sessions still starting
+    public static int getStarting() {
+        return STARTING.get();
+    }
+
+    public static long getAdmissionTimeout() {
+        return TimeUnit.SECONDS.toMillis(Long.getLong("admissionTimeout", 300L));
+    }
+
+    // admits a session when the grid has a free slot or the status is not available, does not wait
+    public static boolean tryAcquire() {
+        while (true) {
+            int free = getFreeSlots();
+            int starting = STARTING.get();
+            if (free >= 0 && free <= starting) {
+                return false;
+            }
+            if (STARTING.compareAndSet(starting, starting + 1)) {
+                return true;
+            }
+        }
+    }
+
+    // waits for a free slot, fails after the admission timeout
+    public static void acquire() {
+        long timeout = getAdmissionTimeout();
+        long deadline = System.currentTimeMillis() + timeout;
+        long interval = 250L;
+        while (!tryAcquire()) {
+            if (System.currentTimeMillis() > deadline) {
+                throw new WebDriverException("No free slot on the grid within " + timeout + "ms, hubs:"
+                        + HubRouter.getHubs().size());
+            }
+            _logger.debug("Waiting for a free slot on the grid, starting:{}", STARTING.get());
+            try {
+                TimeUnit.MILLISECONDS.sleep(interval);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new WebDriverException("Interrupted while waiting for a free slot on the grid", ex);
+            }
+            interval = Math.min(interval * 2, 2000L);
+        }
+    }
+
+    // call it once the admitted session is created (or failed), the hub counts it from now on
+    public static void release() {
+        STARTING.decrementAndGet();
+        // force a fresh status on the next acquire
+        statusTimestamp = 0;
+    }
+}
@@ -0,0 +1,39 @@
+package org.qecamp.zalenium;
+
+import java.util.List;
+
+import org.testng.xml.XmlSuite;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Sizes the thread count of parallel suites to the free slots of the grid. Threads above the free slots wait for a
+ * slot in {@link GridCapacity#acquire()}, so the run grows when sessions are freed on the grid. The threads of a
+ * fanned out browser matrix are its entries' threads, they are kept. Step of {@link SuitePlanListener}.
+ * Optional limit: -DmaxThreads
+ */
+@Slf4j
+public class GridCapacityListener {
+
+    public void alter(List<XmlSuite> suites) {
+        if (BrowserMatrix.isFanOut()) {
+            return;
+        }
+        for (XmlSuite suite : suites) {
+            if (!suite.getParallel().toString().equalsIgnoreCase("tests") || suite.getTests().size() < 2) {
+                continue;
+            }
+            int free = GridCapacity.readFreeSlots();
+            if (free < 0) {
+                _logger.debug("Grid capacity not known, keeping threadCount:{}", suite.getThreadCount());
+                continue;
+            }
+            int threadCount = Math.max(free, suite.getThreadCount());
+            threadCount = Math.min(threadCount, suite.getTests().size());
+            threadCount = Math.min(threadCount, Integer.getInteger("maxThreads", Integer.MAX_VALUE));
+            threadCount = Math.max(threadCount, 1);
+            _logger.info("Grid free slots:{}, threadCount:{} -> {}", free, suite.getThreadCount(), threadCount);
+            suite.setThreadCount(threadCount);
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package org.qecamp.zalenium;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Routes new sessions to the least loaded hub of -DseleniumGrid (comma separated hub urls), by sessions in flight
+ * and recent session start latency. A hub failing -DhubFailureThreshold (default: 3) session starts in a row is taken
+ * out of rotation for -DhubRetryAfter seconds (default: 30), then a single session start is tried on it again.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class HubRouter {
+    // weight of the latest session start in the moving average
+    private static final double WEIGHT = 0.3;
+
+    private static List<Hub> hubs = null;
+    private static final ConcurrentHashMap<RemoteWebDriver, Hub> SESSIONS = new ConcurrentHashMap<RemoteWebDriver, Hub>();
+
+    public static class Hub {
+        @Getter
+        private final String url;
+        // sessions starting or running on the hub
+        private final AtomicInteger inFlight = new AtomicInteger(0);
+        private final LongAdder sessions = new LongAdder();
+        private final LongAdder failures = new LongAdder();
+        @Getter
+        private final LatencyHistogram startup = new LatencyHistogram();
+        // moving average of the session start in milliseconds, 0 when not known
+        private volatile double latency = 0;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger(0);
+        private volatile long openUntil = 0;
+        // a single session start is tried on a hub out of rotation
+        private final AtomicBoolean trial = new AtomicBoolean(false);
+
+        Hub(String url) {
+            this.url = url;
+        }
+
+        public String getStatusUrl() {
+            return url.replaceFirst("/wd/hub/?$", "") + "/grid/api/hub";
+        }
+
+        public int getInFlight() {
+            return inFlight.get();
+        }
+
+        public boolean isOpen() {
+            return consecutiveFailures.get() >= getFailureThreshold();
+        }
+
+        private boolean isAvailable() {
+            return !isOpen() || System.currentTimeMillis() >= openUntil;
+        }
+
+        private double score(double defaultLatency) {
+            return (inFlight.get() + 1) * (latency > 0 ? latency : defaultLatency);
+        }
+
+        private void success(long duration) {
+            sessions.increment();
+            startup.record(duration);
+            latency = latency > 0 ? latency * (1 - WEIGHT) + duration * WEIGHT : duration;
+            if (consecutiveFailures.getAndSet(0) >= getFailureThreshold()) {
+                _logger.info("Hub back in rotation:[{}]", url);
+            }
+            trial.set(false);
+        }
+
+        private void failure() {
+            failures.increment();
+            inFlight.decrementAndGet();
+            if (consecutiveFailures.incrementAndGet() >= getFailureThreshold()) {
+                openUntil = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(Long.getLong("hubRetryAfter", 30L));
+                _logger.warn("Hub out of rotation for {}s after {} failures:[{}]", Long.getLong("hubRetryAfter", 30L),
+                        consecutiveFailures.get(), url);
+            }
+            trial.set(false);
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder
+                    .append("state:").append(isOpen() ? "open" : "closed")
+                    .append(", sessions:").append(sessions.sum())
+                    .append(", in_flight:").append(inFlight.get())
+                    .append(", failures:").append(failures.sum())
+                    .append(", latency:").append(Math.round(latency)).append("ms")
+                    .append(", startup:[").append(startup).append("]");
+            return builder.toString();
+        }
+    }
+
+    public interface SessionStarter {
+        RemoteWebDriver start(Hub hub) throws Exception;
+    }
+
+    public static synchronized List<Hub> getHubs() {
+        if (hubs == null) {
+            List<Hub> list = new ArrayList<Hub>();
+            for (String url : System.getProperty("seleniumGrid", "http://localhost:4444/wd/hub").split(",")) {
+                if (!url.trim().isEmpty()) {
+                    list.add(new Hub(url.trim()));
+                }
+            }
+            hubs = Collections.unmodifiableList(list);
+        }
+        return hubs;
+    }
+
+    private static int getFailureThreshold() {
+        return Integer.getInteger("hubFailureThreshold", 3);
+    }
+
+    // least loaded hub in rotation, a hub out of rotation is picked for a single trial once its retry time is over
+    private static synchronized Hub select(List<Hub> excluded) {
+        double known = 0;
+        int count = 0;
+        for (Hub hub : getHubs()) {
+            if (hub.latency > 0) {
+                known += hub.latency;
+                count++;
+            }
+        }
+        // hubs without a session start yet are ranked with the mean latency of the others
+        double defaultLatency = count > 0 ? known / count : 1;
+        Hub selected = null;
+        for (Hub hub : getHubs()) {
+            if (excluded.contains(hub) || !hub.isAvailable() || (hub.isOpen() && hub.trial.get())) {
+                continue;
+            }
+            if (selected == null || hub.score(defaultLatency) < selected.score(defaultLatency)) {
+                selected = hub;
+            }
+        }
+        if (selected != null) {
+            if (selected.isOpen()) {
+                selected.trial.set(true);
+            }
+            selected.inFlight.incrementAndGet();
+        }
+        return selected;
+    }
+
+    // starts a session on the least loaded hub, fails over to the next hub when the start fails
+    public static RemoteWebDriver startSession(SessionStarter starter) {
+        List<Hub> tried = new ArrayList<Hub>();
+        Exception lastError = null;
+        Hub hub;
+        while ((hub = select(tried)) != null) {
+            tried.add(hub);
+            long start = System.currentTimeMillis();
+            try {
+                RemoteWebDriver webDriver = starter.start(hub);
+                hub.success(System.currentTimeMillis() - start);
+                SESSIONS.put(webDriver, hub);
+                return webDriver;
+            } catch (Exception ex) {
+                hub.failure();
+                lastError = ex;
+                _logger.warn("Session start failed on the hub:[{}], {}", hub.getUrl(), ex.toString());
+            }
+        }
+        throw new WebDriverException("No hub could start the session, hubs tried:" + tried.size(), lastError);
+    }
+
+    // hub of the session, null when not known
+    public static Hub getHub(RemoteWebDriver webDriver) {
+        return SESSIONS.get(webDriver);
+    }
+
+    // call it when the session is quit
+    public static void release(RemoteWebDriver webDriver) {
+        Hub hub = SESSIONS.remove(webDriver);
+        if (hub != null) {
+            hub.inFlight.decrementAndGet();
+        }
+    }
+}
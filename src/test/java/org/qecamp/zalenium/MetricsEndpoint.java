@@ -0,0 +1,139 @@
+package org.qecamp.zalenium;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Live metrics of the running suite in the prometheus text format on http://host:-DmetricsPort/metrics, not started
+ * when -DmetricsPort is not set (0: any free port). A scrape reads the counters and histograms the tests update, it
+ * takes no lock of the listener or of the driver factory.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class MetricsEndpoint {
+    private static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=utf-8";
+    private static final double[] QUANTILES = { 0.5, 0.95, 0.99 };
+
+    private static HttpServer server = null;
+
+    public static synchronized void start() {
+        Integer port = Integer.getInteger("metricsPort");
+        if (port == null || server != null) {
+            return;
+        }
+        try {
+            server = HttpServer.create(new InetSocketAddress(port), 0);
+        } catch (IOException ex) {
+            _logger.error("Unable to start the metrics endpoint on the port:{}", port, ex);
+            return;
+        }
+        server.createContext("/metrics", MetricsEndpoint::handle);
+        server.setExecutor(Executors.newSingleThreadExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "metrics-endpoint");
+            thread.setDaemon(true);
+            return thread;
+        }));
+        server.start();
+        _logger.info("Metrics endpoint:[http://localhost:{}/metrics]", server.getAddress().getPort());
+    }
+
+    public static synchronized void stop() {
+        if (server != null) {
+            server.stop(0);
+            server = null;
+        }
+    }
+
+    private static void handle(HttpExchange exchange) throws IOException {
+        try {
+            byte[] body = scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", CONTENT_TYPE);
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String scrape() {
+        StringBuilder builder = new StringBuilder(4096);
+        long now = System.currentTimeMillis();
+
+        type(builder, "qecamp_test_methods_total", "counter", "Finished test methods by test and status");
+        for (Map.Entry<String, TestCount> entry : TestMetrics.getTests().entrySet()) {
+            String test = escape(entry.getKey());
+            sample(builder, "qecamp_test_methods_total", "test=\"" + test + "\",status=\"success\"",
+                    entry.getValue().getSuccess());
+            sample(builder, "qecamp_test_methods_total", "test=\"" + test + "\",status=\"failure\"",
+                    entry.getValue().getFailures());
+            sample(builder, "qecamp_test_methods_total", "test=\"" + test + "\",status=\"infra_failure\"",
+                    entry.getValue().getInfraFailures());
+            sample(builder, "qecamp_test_methods_total", "test=\"" + test + "\",status=\"skipped\"",
+                    entry.getValue().getSkipped());
+        }
+
+        type(builder, "qecamp_sessions_leased", "gauge", "Sessions held by the tests");
+        sample(builder, "qecamp_sessions_leased", null, WebDriverFactory.getDriverCount());
+        type(builder, "qecamp_sessions_live", "gauge", "Sessions started and not quit yet, leased or pooled");
+        sample(builder, "qecamp_sessions_live", null, SessionRegistry.getLiveCount());
+        type(builder, "qecamp_sessions_starting", "gauge", "Sessions admitted on the grid and still starting");
+        sample(builder, "qecamp_sessions_starting", null, GridCapacity.getStarting());
+
+        type(builder, "qecamp_session_startup_seconds", "summary", "Session creation and first page load");
+        summary(builder, "qecamp_session_startup_seconds", null, CommandMetrics.getSessionStartup());
+        type(builder, "qecamp_wait_seconds", "summary", "Waits of the tests, sessionLease: wait for a session");
+        for (Map.Entry<String, LatencyHistogram> entry : TestMetrics.getWaits().entrySet()) {
+            summary(builder, "qecamp_wait_seconds", "wait=\"" + escape(entry.getKey()) + "\"", entry.getValue());
+        }
+
+        type(builder, "qecamp_running_method_seconds", "gauge", "Method running on each test thread, time so far");
+        for (Map.Entry<String, TestMetrics.Running> entry : TestMetrics.getRunning().entrySet()) {
+            TestMetrics.Running running = entry.getValue();
+            sample(builder, "qecamp_running_method_seconds", "thread=\"" + escape(entry.getKey()) + "\",test=\""
+                    + escape(running.getTest()) + "\",method=\"" + escape(running.getMethod()) + "\"",
+                    (now - running.getStartTime()) / 1000.0);
+        }
+        return builder.toString();
+    }
+
+    private static void type(StringBuilder builder, String name, String type, String help) {
+        builder.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        builder.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder builder, String name, String labels, Object value) {
+        builder.append(name);
+        if (labels != null) {
+            builder.append('{').append(labels).append('}');
+        }
+        builder.append(' ').append(value).append('\n');
+    }
+
+    // quantiles, sum and count of a histogram in milliseconds, exposed in seconds
+    private static void summary(StringBuilder builder, String name, String labels, LatencyHistogram histogram) {
+        String prefix = labels != null ? labels + "," : "";
+        for (double quantile : QUANTILES) {
+            sample(builder, name, prefix + "quantile=\"" + quantile + "\"",
+                    histogram.getPercentile(quantile * 100) / 1000.0);
+        }
+        sample(builder, name + "_sum", labels, histogram.getSum() / 1000.0);
+        sample(builder, name + "_count", labels, histogram.getCount());
+    }
+
+    private static String escape(String value) {
+        return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+    }
+}
@@ -1,14 +1,22 @@
 package org.qecamp.zalenium;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
-import org.openqa.selenium.Cookie;
-import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.testng.IClassListener;
 import org.testng.ISuite;
 import org.testng.ISuiteListener;
+import org.testng.ITestClass;
 import org.testng.ITestContext;
 import org.testng.ITestResult;
 import org.testng.TestListenerAdapter;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
 
 import lombok.extern.slf4j.Slf4j;
 
@@ -17,16 +25,21 @@ import lombok.extern.slf4j.Slf4j;
  */
 
 @Slf4j
-public class MyCustomTestListener extends TestListenerAdapter implements ISuiteListener {
+public class MyCustomTestListener extends TestListenerAdapter implements ISuiteListener, IClassListener {
     private static final String ZALENIUM_MESSAGE = "zaleniumMessage";
     private static final String ZALENIUM_TEST_STATUS = "zaleniumTestPassed";
 
-    private static final ConcurrentHashMap<String, TestCount> TEST_COUNTS = new ConcurrentHashMap<String, TestCount>();
-    private static final TestCount SUITE_COUNT = new TestCount();
+    // per thread drivers: the methods run on the session passed, until the driver is released
+    private static final ConcurrentHashMap<String, Boolean> LEASE_PASSED = new ConcurrentHashMap<String, Boolean>();
+
+    // predicted duration of the suite from the duration history, -1 when not known
+    private static volatile long predictedMakespan = -1;
+    private static volatile long makespanLowerBound = -1;
 
     private enum STATUS {
         SUCCESS,
         FAILURES,
+        INFRA_FAILURES,
         SKIPPED,
         START_TIME,
         END_TIME;
@@ -48,15 +61,14 @@ public class MyCustomTestListener extends TestListenerAdapter implements ISuiteL
     }
 
     private void updateTestCount(ITestContext testContext, STATUS status, Long timestamp) {
-        String name = getTestName(testContext);
-        if (TEST_COUNTS.get(name) == null) {
-            TEST_COUNTS.put(name, new TestCount());
-        }
-        TestCount testCount = TEST_COUNTS.get(name);
+        TestCount testCount = TestMetrics.getTest(getTestName(testContext));
         switch (status) {
             case FAILURES:
                 testCount.incrementFailures();
                 break;
+            case INFRA_FAILURES:
+                testCount.incrementInfraFailures();
+                break;
             case SKIPPED:
                 testCount.incrementSkipped();
                 break;
@@ -74,14 +86,56 @@ public class MyCustomTestListener extends TestListenerAdapter implements ISuiteL
         }
     }
 
-    private Cookie cookie(String key, String value) {
-        return new Cookie(key, value);
+    private void recordResult(ITestResult result) {
+        TestMetrics.finished();
+        TestMetrics.recordDuration(result);
+        DurationHistory.recordClass(result.getTestClass().getRealClass().getName(),
+                result.getEndMillis() - result.getStartMillis());
+    }
+
+    // status of a per thread driver, kept until the driver is released
+    private void recordLease(ITestResult result, boolean passed) {
+        if (WebDriverFactory.isDriverPerThread(result.getTestContext())) {
+            LEASE_PASSED.merge(WebDriverFactory.getDriverName(result.getTestContext()), passed, Boolean::logicalAnd);
+        }
+    }
+
+    // end of a per thread lease, the session goes back to the pool
+    private void releaseLease(String driverName, RemoteWebDriver driver, String message) {
+        ZaleniumChannel.send(driver, ZALENIUM_MESSAGE, message);
+        Boolean passed = LEASE_PASSED.remove(driverName);
+        if (passed != null) {
+            ZaleniumChannel.send(driver, ZALENIUM_TEST_STATUS, String.valueOf(passed));
+        }
+        WebDriverFactory.releaseDriver(driverName);
+    }
+
+    // the captured log of the method, written when it did not pass
+    private void writeTestLog(ITestResult result, String outcome) {
+        File log = TestLogAppender.write(WebDriverFactory.getDriverName(result.getTestContext()), result, outcome);
+        if (log != null) {
+            _logger.info("*** Test log[M] - {}:[{}]", getMethodName(result), log.getPath());
+        }
+    }
+
+    private void predictMakespan(ISuite suite) {
+        List<Long> durations = new ArrayList<Long>();
+        for (XmlTest test : suite.getXmlSuite().getTests()) {
+            durations.add(DurationHistory.getTestDuration(test.getName()));
+        }
+        List<Long> expected = DurationHistory.expected(durations);
+        if (expected != null) {
+            XmlSuite xmlSuite = suite.getXmlSuite();
+            int threads = WebDriverFactory.isDriverPerTest(xmlSuite) ? xmlSuite.getThreadCount() : 1;
+            predictedMakespan = DurationHistory.makespan(expected, threads);
+            makespanLowerBound = DurationHistory.lowerBound(expected, threads);
+        }
     }
 
     private void updateCookieAllDrivers(String key, String value) {
         for (String driverName : WebDriverFactory.getKeysAllDriver()) {
             try {
-                WebDriverFactory.getDriver(driverName).manage().addCookie(cookie(key, value));
+                ZaleniumChannel.send(WebDriverFactory.getDriver(driverName), key, value);
             } catch (Exception ex) {
                 _logger.error("Exception, driverName:[{}]", driverName, ex);
             }
@@ -92,7 +146,12 @@ public class MyCustomTestListener extends TestListenerAdapter implements ISuiteL
 
     @Override
     public void onStart(ISuite suite) {
-        SUITE_COUNT.setStartTime(System.currentTimeMillis());
+        TestMetrics.getSuite().setStartTime(System.currentTimeMillis());
+        MetricsEndpoint.start();
+        ResultJournal.open();
+        ResultJournal.suite(ResultEvent.START, suite);
+        WebDriverFactory.warmUp(suite);
+        predictMakespan(suite);
         //DriverFactory.driverUI().manage().addCookie(cookie(ZALENIUM_MESSAGE, "[S] Start: " + suite.getName()));
         _logger.info("*** START[S]- {}", suite.getName());
         _logger.debug("*** Parallel run config[ParallelMode:{}[{}], threadCount: {}]",
@@ -102,26 +161,69 @@ public class MyCustomTestListener extends TestListenerAdapter implements ISuiteL
 
     @Override
     public void onFinish(ISuite suite) {
-        SUITE_COUNT.setEndTime(System.currentTimeMillis());
+        TestMetrics.getSuite().setEndTime(System.currentTimeMillis());
+        ResultJournal.suite(ResultEvent.FINISH, suite);
         updateCookieAllDrivers(ZALENIUM_MESSAGE, "[S] End: " + suite.getName());
         _logger.info("*** END[S]- {}", suite.getName());
+        // the report is computed from the results file
+        ResultJournal.close();
+        ResultJournal.Summary summary = ResultJournal.summarize();
         StringBuilder builder = new StringBuilder();
-        builder.append("\n\n************** SUITE SUMMARY REPORT **************************");
-        builder.append("\n").append(suite.getName()).append(": {").append(SUITE_COUNT).append("}");
-        builder.append("\n\n******************* TESTS SUMMARY ****************************");
-        for (String key : TEST_COUNTS.keySet()) {
-            builder.append("\n").append(key).append(": {").append(TEST_COUNTS.get(key)).append("}");
+        summary.appendReport(builder);
+        builder.append("\n\n******************* WAITS SUMMARY ****************************");
+        for (String key : TestMetrics.getWaits().keySet()) {
+            builder.append("\n").append(key).append(": {").append(TestMetrics.getWait(key)).append("}");
         }
-        if (SUITE_COUNT.getTotal() != SUITE_COUNT.getSuccess()) {
+        if (TestMetrics.getSuite().getTotal() != TestMetrics.getSuite().getSuccess()) {
             updateCookieAllDrivers(ZALENIUM_TEST_STATUS, "false");
         } else {
             updateCookieAllDrivers(ZALENIUM_TEST_STATUS, "true");
         }
         // call tearDown tasks
+        FailureArtifacts.close(60, TimeUnit.SECONDS);
+        TestLogAppender.close(60, TimeUnit.SECONDS);
         WebDriverFactory.tearDownAll();
+        DurationHistory.recordFlakiness(summary);
+        DurationHistory.save();
+        CommandMetrics.export();
 
+        builder.append("\n\n****************** COMMANDS SUMMARY **************************");
+        builder.append("\nsession startup: {").append(CommandMetrics.getSessionStartup()).append("}");
+        for (Map.Entry<String, CommandMetrics.CommandStats> entry : CommandMetrics.getCommands().entrySet()) {
+            builder.append("\n").append(entry.getKey()).append(": {").append(entry.getValue()).append("}");
+        }
+        builder.append("\n\n****************** SESSIONS SUMMARY **************************");
+        for (Map.Entry<String, CommandMetrics.CommandStats> entry : CommandMetrics.getSessions().entrySet()) {
+            builder.append("\n").append(entry.getKey()).append(": {").append(entry.getValue()).append("}");
+        }
+
+        builder.append("\n\n******************** HUBS SUMMARY *****************************");
+        for (HubRouter.Hub hub : HubRouter.getHubs()) {
+            builder.append("\n").append(hub.getUrl()).append(": {").append(hub).append("}");
+        }
+
+        TestCount suiteCount = summary.getSuite();
+        builder.append("\n\nMakespan: {actual:[")
+                .append(TestCount.timeTaken(suiteCount.getEndTime() - suiteCount.getStartTime()))
+                .append("], predicted:[")
+                .append(predictedMakespan < 0 ? "n/a" : TestCount.timeTaken(predictedMakespan))
+                .append("], lower_bound:[")
+                .append(makespanLowerBound < 0 ? "n/a" : TestCount.timeTaken(makespanLowerBound))
+                .append("]}");
+
+        builder.append("\n\nZalenium channel: {").append(ZaleniumChannel.stats()).append("}");
+        builder.append("\nFailure artifacts: {").append(FailureArtifacts.stats()).append("}");
+        builder.append("\nTest logs: {").append(TestLogAppender.stats()).append("}");
+        builder.append("\nSessions: {").append(SessionRegistry.stats()).append("}");
+        builder.append("\nHealth: {").append(SessionHealth.stats()).append("}");
+        builder.append("\nNavigation: {").append(NavigationState.stats()).append("}");
+        builder.append("\nVideo: {").append(RecordingPolicy.stats()).append("}");
+        builder.append("\nHttp pool: {").append(SharedHttpClientFactory.getInstance().stats()).append("}");
+        builder.append("\nResults: {file:[").append(ResultJournal.getFile().getPath()).append("], events:")
+                .append(summary.getEvents()).append("}");
         builder.append("\n*************************** END ******************************\n");
         _logger.info("*** Summary report:{}", builder.toString());
+        MetricsEndpoint.stop();
     }
 
     // test listeners
@@ -129,10 +231,15 @@ public class MyCustomTestListener extends TestListenerAdapter implements ISuiteL
     @Override
     public void onStart(ITestContext context) {
         _logger.info("*** START[T] - {}", context.getName());
+        ResultJournal.test(ResultEvent.START, context);
         updateTestCount(context, STATUS.START_TIME, System.currentTimeMillis());
+        // per thread drivers are leased by the threads running the methods
+        if (WebDriverFactory.isDriverPerThread(context)) {
+            return;
+        }
         try {
-            WebDriverFactory.getDriver(context).manage()
-                    .addCookie(cookie(ZALENIUM_MESSAGE, "[T] Start: " + context.getName()));
+            ZaleniumChannel.send(WebDriverFactory.getDriver(context), ZALENIUM_MESSAGE,
+                    "[T] Start: " + context.getName());
         } catch (Exception ex) {
             _logger.error("Exception, ", ex);
         }
@@ -142,38 +249,60 @@ public class MyCustomTestListener extends TestListenerAdapter implements ISuiteL
     public void onFinish(ITestContext context) {
         _logger.info("*** END[T] - {}", context.getName());
         updateTestCount(context, STATUS.END_TIME, System.currentTimeMillis());
-        TestCount testCount = TEST_COUNTS.get(getTestName(context));
+        ResultJournal.test(ResultEvent.FINISH, context);
+        TestCount testCount = TestMetrics.getTest(getTestName(context));
+        DurationHistory.recordTest(context.getName(), testCount.getEndTime() - testCount.getStartTime());
         _logger.info("*** Test run:{name:[{}], {}}\n", context.getName(), testCount.toString());
+        if (WebDriverFactory.isDriverPerThread(context)) {
+            for (Map.Entry<String, RemoteWebDriver> entry : WebDriverFactory.getThreadDrivers(context).entrySet()) {
+                TestLogAppender.end(entry.getKey());
+                try {
+                    releaseLease(entry.getKey(), entry.getValue(), "[T] End: " + context.getName());
+                } catch (Exception ex) {
+                    _logger.error("Exception, driverName:[{}]", entry.getKey(), ex);
+                }
+            }
+            WebDriverFactory.releasePermits(context);
+            return;
+        }
+        TestLogAppender.end(WebDriverFactory.getDriverName(context));
         try {
             String driverName = WebDriverFactory.getDriverName(context);
-            WebDriver driver = WebDriverFactory.getDriver(driverName);
-            driver.manage().addCookie(cookie(ZALENIUM_MESSAGE, "[T] End: " + context.getName()));
+            RemoteWebDriver driver = WebDriverFactory.getDriver(driverName);
+            ZaleniumChannel.send(driver, ZALENIUM_MESSAGE, "[T] End: " + context.getName());
             // if thread count is greater than 1, works on parrel run
-            if (context.getSuite().getXmlSuite().getParallel().isParallel()
-                    && context.getSuite().getXmlSuite().getThreadCount() > 1) {
+            if (WebDriverFactory.isDriverPerTest(context)) {
                 if (testCount.getTotal() == testCount.getSuccess()) {
-                    driver.manage().addCookie(cookie(ZALENIUM_TEST_STATUS, "true"));
+                    ZaleniumChannel.send(driver, ZALENIUM_TEST_STATUS, "true");
                 } else {
-                    driver.manage().addCookie(cookie(ZALENIUM_TEST_STATUS, "false"));
+                    ZaleniumChannel.send(driver, ZALENIUM_TEST_STATUS, "false");
                 }
-                // teardown
-                driver.quit();
-
-                WebDriverFactory.removeDriver(driverName);
+                // return the session to the pool, will be reused by the next test
+                WebDriverFactory.releaseDriver(driverName);
             }
         } catch (Exception ex) {
             _logger.error("Exception, ", ex);
         }
+        WebDriverFactory.releasePermits(context);
     }
 
     // method listeners
 
     @Override
     public void onTestStart(ITestResult result) {
+        // the events of this thread go to the log of the method
+        TestLogAppender.begin(WebDriverFactory.getDriverName(result.getTestContext()));
         _logger.info("*** START[M] - {}", getMethodName(result));
+        TestMetrics.started(result);
+        ResultJournal.method(ResultEvent.START, result);
         try {
-            WebDriverFactory.getDriver(result.getTestContext()).manage()
-                    .addCookie(cookie(ZALENIUM_MESSAGE, "[M] Start: " + result.getName()));
+            RemoteWebDriver driver = WebDriverFactory.getDriver(result.getTestContext());
+            if (RetryAnalyzer.isEnabled()) {
+                // a retry starts again from this url
+                result.setAttribute(RetryAnalyzer.START_URL, NavigationState.of(driver).getCurrentUrl());
+            }
+            RecordingPolicy.starting(driver, result);
+            ZaleniumChannel.send(driver, ZALENIUM_MESSAGE, "[M] Start: " + result.getName());
         } catch (Exception ex) {
             _logger.error("Exception, ", ex);
         }
@@ -181,15 +310,19 @@ public class MyCustomTestListener extends TestListenerAdapter implements ISuiteL
 
     @Override
     public void onTestSuccess(ITestResult result) {
-        SUITE_COUNT.incrementSuccess();
+        TestMetrics.getSuite().incrementSuccess();
         UpdateTestCount(result.getTestContext(), STATUS.SUCCESS);
+        recordResult(result);
+        recordLease(result, true);
+        ResultJournal.method(ResultEvent.SUCCESS, result);
         _logger.info("*** SUCCESS[M] - {}\n", getMethodName(result));
         try {
-            WebDriverFactory.getDriver(result.getTestContext()).manage()
-                    .addCookie(cookie(ZALENIUM_MESSAGE, "[M] Success: " + result.getName()));
+            ZaleniumChannel.send(WebDriverFactory.getDriver(result.getTestContext()), ZALENIUM_MESSAGE,
+                    "[M] Success: " + result.getName());
         } catch (Exception ex) {
             _logger.error("Exception, ", ex);
         }
+        TestLogAppender.discard(WebDriverFactory.getDriverName(result.getTestContext()));
     }
 
     @Override
@@ -198,29 +331,103 @@ public class MyCustomTestListener extends TestListenerAdapter implements ISuiteL
 
     @Override
     public void onTestFailure(ITestResult result) {
-        SUITE_COUNT.incrementFailures();
+        // a failure of the grid or of the session is not a failure of the test, the session is not asked for artifacts
+        RemoteWebDriver leased = WebDriverFactory.findDriver(WebDriverFactory.getDriverName(result.getTestContext()));
+        if (SessionHealth.markDeadIfInfra(leased, result.getThrowable())) {
+            onTestInfraFailure(result);
+            return;
+        }
+        TestMetrics.getSuite().incrementFailures();
         UpdateTestCount(result.getTestContext(), STATUS.FAILURES);
+        recordResult(result);
+        recordLease(result, false);
+        ResultJournal.method(ResultEvent.FAILURE, result);
         _logger.info("*** FAILED[M] - {}\n", getMethodName(result));
         // report to video test failed
         try {
-            WebDriverFactory.getDriver(result.getTestContext()).manage()
-                    .addCookie(cookie(ZALENIUM_MESSAGE, "[M] Failed: " + result.getName()));
+            RemoteWebDriver driver = WebDriverFactory.getDriver(result.getTestContext());
+            File artifacts = FailureArtifacts.capture(result, driver);
+            if (artifacts != null) {
+                _logger.info("*** Failure artifacts[M] - {}:[{}]", getMethodName(result), artifacts.getPath());
+            }
+            ZaleniumChannel.send(driver, ZALENIUM_MESSAGE, "[M] Failed: " + result.getName());
         } catch (Exception ex) {
             _logger.error("Exception, ", ex);
         }
+        writeTestLog(result, "failed");
+    }
+
+    private void onTestInfraFailure(ITestResult result) {
+        result.setAttribute(SessionHealth.INFRA_FAILURE, true);
+        TestMetrics.getSuite().incrementInfraFailures();
+        UpdateTestCount(result.getTestContext(), STATUS.INFRA_FAILURES);
+        recordResult(result);
+        recordLease(result, false);
+        ResultJournal.method(ResultEvent.FAILURE, result);
+        _logger.info("*** INFRA FAILURE[M] - {}, {}\n", getMethodName(result), String.valueOf(result.getThrowable()));
+        writeTestLog(result, "infra_failure");
     }
 
     @Override
     public void onTestSkipped(ITestResult result) {
-        SUITE_COUNT.incrementSkipped();
+        if (RetryAnalyzer.isRetried(result)) {
+            onTestRetry(result);
+            return;
+        }
+        TestMetrics.getSuite().incrementSkipped();
         UpdateTestCount(result.getTestContext(), STATUS.SKIPPED);
+        recordResult(result);
+        recordLease(result, false);
+        ResultJournal.method(ResultEvent.SKIPPED, result);
         _logger.info("*** SKIPPED[M] - {}\n", getMethodName(result));
         try {
-            WebDriverFactory.getDriver(result.getTestContext()).manage()
-                    .addCookie(cookie(ZALENIUM_MESSAGE, "[M] Skipped: " + result.getName()));
+            ZaleniumChannel.send(WebDriverFactory.getDriver(result.getTestContext()), ZALENIUM_MESSAGE,
+                    "[M] Skipped: " + result.getName());
+        } catch (Exception ex) {
+            _logger.error("Exception, ", ex);
+        }
+        TestLogAppender.discard(WebDriverFactory.getDriverName(result.getTestContext()));
+    }
+
+    // failed attempt, the method runs again on the same session. Only the final outcome is counted
+    private void onTestRetry(ITestResult result) {
+        TestMetrics.finished();
+        DurationHistory.recordClass(result.getTestClass().getRealClass().getName(),
+                result.getEndMillis() - result.getStartMillis());
+        ResultJournal.method(ResultEvent.RETRY, result);
+        _logger.info("*** RETRY[M] - {}, attempt:{}\n", getMethodName(result),
+                result.getAttribute(RetryAnalyzer.RETRY));
+        try {
+            RemoteWebDriver driver = WebDriverFactory.getDriver(result.getTestContext());
+            RecordingPolicy.retrying(driver);
+            ZaleniumChannel.send(driver, ZALENIUM_MESSAGE, "[M] Retry: " + result.getName());
         } catch (Exception ex) {
             _logger.error("Exception, ", ex);
         }
+        writeTestLog(result, "retry" + result.getAttribute(RetryAnalyzer.RETRY));
     }
 
-}
\ No newline at end of file
+    // class listeners
+
+    @Override
+    public void onBeforeClass(ITestClass testClass) {
+    }
+
+    // runs on the thread of the class, with parallel classes the driver of the thread goes back to the pool
+    @Override
+    public void onAfterClass(ITestClass testClass) {
+        if (!WebDriverFactory.isDriverPerClass(testClass.getXmlTest())) {
+            return;
+        }
+        String driverName = WebDriverFactory.getDriverName(testClass);
+        TestLogAppender.end(driverName);
+        RemoteWebDriver driver = WebDriverFactory.findDriver(driverName);
+        if (driver != null) {
+            try {
+                releaseLease(driverName, driver, "[C] End: " + testClass.getRealClass().getSimpleName());
+            } catch (Exception ex) {
+                _logger.error("Exception, driverName:[{}]", driverName, ex);
+            }
+        }
+    }
+}
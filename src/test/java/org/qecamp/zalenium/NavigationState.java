@@ -0,0 +1,131 @@
+package org.qecamp.zalenium;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+/**
+ * Where a session is, as far as the tests know: the logical page reached by the last tracked navigation and the
+ * current url once read. A navigation to the page the session is already on is skipped and the current url is read
+ * without a remote call while it is known. Dropped when the page changes outside of a tracked navigation (click,
+ * retry), new and reset sessions are on the {@link #HOME} page. The navigation commands sent on the driver directly
+ * (get, back, forward, refresh, element click and submit) drop it too, see {@link TimedCommandExecutor}. A script
+ * changing the location does not, call {@link #invalidate(RemoteWebDriver)} after it.
+ */
+public class NavigationState {
+    // the page of -DbaseUrl, where new and reset sessions are
+    public static final String HOME = "home";
+
+    // sessionId -> state, dropped when the session is quit (see SessionRegistry)
+    private static final Map<String, NavigationState> STATES = Collections
+            .synchronizedMap(new HashMap<String, NavigationState>());
+    private static final LongAdder NAVIGATIONS = new LongAdder();
+    private static final LongAdder NAVIGATIONS_SKIPPED = new LongAdder();
+    // navigations that did not go anywhere, the page stays unknown
+    private static final LongAdder NAVIGATIONS_MISSED = new LongAdder();
+    private static final LongAdder URL_READS = new LongAdder();
+    private static final LongAdder URL_READS_SKIPPED = new LongAdder();
+
+    private final RemoteWebDriver webDriver;
+    private String page = null;
+    private String url = null;
+
+    private NavigationState(RemoteWebDriver webDriver) {
+        this.webDriver = webDriver;
+    }
+
+    public static NavigationState of(RemoteWebDriver webDriver) {
+        // quit, nothing to track
+        if (webDriver.getSessionId() == null) {
+            return new NavigationState(webDriver);
+        }
+        String sessionId = webDriver.getSessionId().toString();
+        synchronized (STATES) {
+            NavigationState state = STATES.get(sessionId);
+            if (state == null) {
+                state = new NavigationState(webDriver);
+                STATES.put(sessionId, state);
+            }
+            return state;
+        }
+    }
+
+    // call it when the page is changed outside of the tests, ie: session reset
+    public static void invalidate(RemoteWebDriver webDriver) {
+        if (webDriver.getSessionId() != null) {
+            invalidate(webDriver.getSessionId().toString());
+        }
+    }
+
+    // a navigation command was sent on the session
+    static void invalidate(String sessionId) {
+        NavigationState state = STATES.get(sessionId);
+        if (state != null) {
+            state.invalidate();
+        }
+    }
+
+    // call it when the session is quit
+    static void forget(String sessionId) {
+        STATES.remove(sessionId);
+    }
+
+    public synchronized void invalidate() {
+        page = null;
+        url = null;
+    }
+
+    public synchronized String getPage() {
+        return page;
+    }
+
+    // the url is not known after a load, the browser may have been redirected
+    public synchronized void loaded(String page) {
+        this.page = page;
+        this.url = null;
+    }
+
+    public synchronized String getCurrentUrl() {
+        if (url != null) {
+            URL_READS_SKIPPED.increment();
+            return url;
+        }
+        URL_READS.increment();
+        url = webDriver.getCurrentUrl();
+        return url;
+    }
+
+    // runs the navigation unless the session is already on the page. The navigation returns whether it went to the
+    // page, the page is recorded only then
+    public void navigate(String page, BooleanSupplier navigation) {
+        if (page.equals(getPage())) {
+            NAVIGATIONS_SKIPPED.increment();
+            return;
+        }
+        NAVIGATIONS.increment();
+        if (!navigation.getAsBoolean()) {
+            NAVIGATIONS_MISSED.increment();
+            invalidate();
+            return;
+        }
+        // a click of the navigation drops the url, otherwise the url read by the navigation is still current
+        synchronized (this) {
+            this.page = page;
+        }
+    }
+
+    public static String stats() {
+        StringBuilder builder = new StringBuilder();
+        builder
+                .append("navigations:").append(NAVIGATIONS.sum())
+                .append(", navigations_skipped:").append(NAVIGATIONS_SKIPPED.sum())
+                .append(", navigations_missed:").append(NAVIGATIONS_MISSED.sum())
+                .append(", url_reads:").append(URL_READS.sum())
+                .append(", url_reads_skipped:").append(URL_READS_SKIPPED.sum());
+        return builder.toString();
+    }
+}
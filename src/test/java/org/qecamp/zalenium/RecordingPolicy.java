@@ -0,0 +1,166 @@
+package org.qecamp.zalenium;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.testng.ITestResult;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Which tests zalenium records, -DrecordVideo (comma separated, default: all):
+ * <ul>
+ * <li>all, none</li>
+ * <li>retries: the attempts after a failure</li>
+ * <li>flaky: methods failed or retried in the recent runs, flakiness (see {@link DurationHistory}) of at least
+ * -DvideoFlakyThreshold (default: 0.2)</li>
+ * <li>sample: a fraction -DvideoSample (default: 0.1) of the methods, the same methods on every run</li>
+ * </ul>
+ * Sessions are created with video unless the policy is none or the browser is headless, with any other policy than
+ * all the recording is switched on and off per test with the zaleniumVideo cookie.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class RecordingPolicy {
+    private static final String COOKIE = "zaleniumVideo";
+    private static final String ALL = "all";
+    private static final String NONE = "none";
+    private static final String RETRIES = "retries";
+    private static final String FLAKY = "flaky";
+    private static final String SAMPLE = "sample";
+
+    private static Set<String> policy = null;
+    private static final Map<RemoteWebDriver, Recording> RECORDINGS = Collections
+            .synchronizedMap(new WeakHashMap<RemoteWebDriver, Recording>());
+    private static final LongAdder RECORDED = new LongAdder();
+    private static final LongAdder NOT_RECORDED = new LongAdder();
+
+    private static class Recording {
+        private Boolean on = null;
+        // the next test on the session is a retry
+        private boolean retry = false;
+    }
+
+    private static synchronized Set<String> getPolicy() {
+        if (policy == null) {
+            policy = new HashSet<String>();
+            for (String mode : System.getProperty("recordVideo", ALL).toLowerCase().split(",")) {
+                if (!mode.trim().isEmpty()) {
+                    policy.add(mode.trim());
+                }
+            }
+            for (String mode : policy) {
+                if (!Arrays.asList(ALL, NONE, RETRIES, FLAKY, SAMPLE).contains(mode)) {
+                    throw new IllegalArgumentException("Invalid recordVideo:" + mode
+                            + ", expected all, none, retries, flaky or sample");
+                }
+            }
+        }
+        return policy;
+    }
+
+    // sessions are created with video
+    public static boolean isRecording() {
+        return !getPolicy().contains(NONE) || getPolicy().size() > 1;
+    }
+
+    // recording is decided per test
+    private static boolean isSelective() {
+        return isRecording() && !getPolicy().contains(ALL);
+    }
+
+    private static Recording get(RemoteWebDriver webDriver) {
+        synchronized (RECORDINGS) {
+            Recording recording = RECORDINGS.get(webDriver);
+            if (recording == null) {
+                recording = new Recording();
+                RECORDINGS.put(webDriver, recording);
+            }
+            return recording;
+        }
+    }
+
+    // new session, nothing to record until a test asks for it
+    public static void started(RemoteWebDriver webDriver) {
+        if (isSelective()) {
+            switchTo(webDriver, false);
+        }
+    }
+
+    // the failed test runs again on the session
+    public static void retrying(RemoteWebDriver webDriver) {
+        if (isSelective() && getPolicy().contains(RETRIES)) {
+            synchronized (RECORDINGS) {
+                get(webDriver).retry = true;
+            }
+        }
+    }
+
+    // switches the recording for the test starting on the session
+    public static void starting(RemoteWebDriver webDriver, ITestResult result) {
+        if (!isSelective()) {
+            return;
+        }
+        boolean retry;
+        synchronized (RECORDINGS) {
+            Recording recording = get(webDriver);
+            retry = recording.retry;
+            recording.retry = false;
+        }
+        String method = result.getTestClass().getRealClass().getName() + "." + result.getName();
+        boolean record = retry || isFlaky(method) || isSampled(method);
+        if (record) {
+            RECORDED.increment();
+        } else {
+            NOT_RECORDED.increment();
+        }
+        switchTo(webDriver, record);
+    }
+
+    private static boolean isFlaky(String method) {
+        if (!getPolicy().contains(FLAKY)) {
+            return false;
+        }
+        Double flakiness = DurationHistory.getFlakiness(method);
+        return flakiness != null && flakiness >= Double.parseDouble(System.getProperty("videoFlakyThreshold", "0.2"));
+    }
+
+    // String.hashCode() is the same on every run
+    private static boolean isSampled(String method) {
+        if (!getPolicy().contains(SAMPLE)) {
+            return false;
+        }
+        double sample = Double.parseDouble(System.getProperty("videoSample", "0.1"));
+        return (method.hashCode() & Integer.MAX_VALUE) % 10000 < sample * 10000;
+    }
+
+    // the cookie is sent only when the recording changes
+    private static void switchTo(RemoteWebDriver webDriver, boolean on) {
+        synchronized (RECORDINGS) {
+            Recording recording = get(webDriver);
+            if (recording.on != null && recording.on == on) {
+                return;
+            }
+            recording.on = on;
+        }
+        _logger.debug("Video recording {}, SessionId:[{}]", on ? "on" : "off", webDriver.getSessionId());
+        ZaleniumChannel.send(webDriver, COOKIE, String.valueOf(on));
+    }
+
+    public static String stats() {
+        StringBuilder builder = new StringBuilder();
+        builder
+                .append("policy:").append(getPolicy())
+                .append(", recorded:").append(RECORDED.sum())
+                .append(", not_recorded:").append(NOT_RECORDED.sum());
+        return builder.toString();
+    }
+}
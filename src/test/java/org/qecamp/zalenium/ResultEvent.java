@@ -0,0 +1,66 @@
+package org.qecamp.zalenium;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import lombok.Data;
+
+/**
+ * One line of the results file, a suite, test or method event. See {@link ResultJournal}.
+ */
+@Data
+@JsonInclude(JsonInclude.Include.NON_NULL)
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class ResultEvent {
+    public static final String SUITE = "suite";
+    public static final String TEST = "test";
+    public static final String METHOD = "method";
+
+    public static final String START = "start";
+    public static final String FINISH = "finish";
+    public static final String SUCCESS = "success";
+    public static final String FAILURE = "failure";
+    public static final String SKIPPED = "skipped";
+    // failed attempt of a method, retried (see RetryAnalyzer)
+    public static final String RETRY = "retry";
+
+    // suite, test or method
+    private String type;
+    // start, finish or the outcome of a method
+    private String event;
+    private long time;
+    private String suite;
+    // -Dshard of a suite event, see ShardListener
+    private String shard;
+    private String test;
+    // browser matrix entry, see BrowserMatrix
+    private String browser;
+    // class.method of a method event
+    private String method;
+    private String parameters;
+    // invocation of the method, invocationCount or a data set given twice
+    private Integer invocation;
+    private Long duration;
+    private String thread;
+    private String error;
+    // failure of the grid or of the session and not of the test, see SessionHealth
+    private Boolean infra;
+
+    // identifies a method invocation, a later outcome of the same id replaces the previous one (retry)
+    public String methodId() {
+        return test + ":" + method + (parameters != null ? parameters : "")
+                + (invocation != null ? "#" + invocation : "");
+    }
+
+    // failed by the test itself
+    @JsonIgnore
+    public boolean isTestFailure() {
+        return FAILURE.equals(event) && !Boolean.TRUE.equals(infra);
+    }
+
+    @JsonIgnore
+    public boolean isOutcome() {
+        return SUCCESS.equals(event) || FAILURE.equals(event) || SKIPPED.equals(event);
+    }
+}
@@ -0,0 +1,430 @@
+package org.qecamp.zalenium;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+import org.testng.ISuite;
+import org.testng.ITestContext;
+import org.testng.ITestResult;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.AccessLevel;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Results of the run as json lines in -DresultsFile (default: target/results.jsonl). Events are queued by the test
+ * threads and appended in batches by a background writer, the file is synced to disk every -DresultsSync
+ * milliseconds (default: 1000). A crashed run keeps the results written so far, the file can be tailed for live
+ * progress. The summary report is computed by streaming over the file, see {@link #summarize()}. With -Dresume the
+ * events are appended to the results of the previous run (see {@link ResumeListener}).
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ResultJournal {
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    private static final int BATCH_SIZE = 256;
+    // marks the end of the queue
+    private static final ResultEvent END = new ResultEvent();
+
+    private static final BlockingQueue<ResultEvent> QUEUE = new LinkedBlockingQueue<ResultEvent>();
+    // outcomes so far of each method and parameters: the index of its next invocation. The invocation count of
+    // testng also counts the retried attempts, a retry and its final outcome must share the index
+    private static final ConcurrentHashMap<String, AtomicInteger> INVOCATIONS =
+            new ConcurrentHashMap<String, AtomicInteger>();
+    private static volatile Thread writer = null;
+
+    @Getter
+    public static class Flakiness {
+        private long retries = 0;
+        // passed on a retry
+        private long flaky = 0;
+        // failed on every attempt
+        private long failed = 0;
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            builder
+                    .append("retries:").append(retries)
+                    .append(", flaky:").append(flaky)
+                    .append(", failed:").append(failed);
+            return builder.toString();
+        }
+    }
+
+    @Getter
+    public static class Summary {
+        private String suiteName = null;
+        private final TestCount suite = new TestCount();
+        private final Map<String, TestCount> tests = new LinkedHashMap<String, TestCount>();
+        // results grouped by browser matrix entry, empty when the tests are not fanned out
+        private final Map<String, TestCount> browsers = new TreeMap<String, TestCount>();
+        private final Map<String, LatencyHistogram> methods = new TreeMap<String, LatencyHistogram>();
+        // total duration of the methods per class
+        private final Map<String, Long> classes = new TreeMap<String, Long>();
+        // methods retried at least once
+        private final Map<String, Flakiness> retries = new TreeMap<String, Flakiness>();
+        // methods failed or retried
+        private final Set<String> unstable = new TreeSet<String>();
+        private final Set<String> shards = new TreeSet<String>();
+        private long events = 0;
+
+        private TestCount get(Map<String, TestCount> counts, String name) {
+            TestCount testCount = counts.get(name);
+            if (testCount == null) {
+                testCount = new TestCount();
+                counts.put(name, testCount);
+            }
+            return testCount;
+        }
+
+        // suite, tests, browsers and methods sections of the summary report
+        public void appendReport(StringBuilder builder) {
+            builder.append("\n\n************** SUITE SUMMARY REPORT **************************");
+            builder.append("\n").append(suiteName).append(": {").append(suite).append("}");
+            builder.append("\n\n******************* TESTS SUMMARY ****************************");
+            for (Map.Entry<String, TestCount> entry : tests.entrySet()) {
+                builder.append("\n").append(entry.getKey()).append(": {").append(entry.getValue()).append("}");
+            }
+            if (!browsers.isEmpty()) {
+                builder.append("\n\n****************** BROWSERS SUMMARY **************************");
+                for (Map.Entry<String, TestCount> entry : browsers.entrySet()) {
+                    builder.append("\n").append(entry.getKey()).append(": {").append(entry.getValue()).append("}");
+                }
+            }
+            builder.append("\n\n****************** METHODS SUMMARY ***************************");
+            for (Map.Entry<String, LatencyHistogram> entry : methods.entrySet()) {
+                builder.append("\n").append(entry.getKey()).append(": {").append(entry.getValue()).append("}");
+            }
+            if (!retries.isEmpty()) {
+                builder.append("\n\n****************** RETRIES SUMMARY ***************************");
+                for (Map.Entry<String, Flakiness> entry : retries.entrySet()) {
+                    builder.append("\n").append(entry.getKey()).append(": {").append(entry.getValue()).append("}");
+                }
+            }
+        }
+
+        private void count(TestCount testCount, ResultEvent result) {
+            switch (result.getEvent()) {
+                case ResultEvent.SUCCESS:
+                    testCount.incrementSuccess();
+                    break;
+                case ResultEvent.FAILURE:
+                    if (result.isTestFailure()) {
+                        testCount.incrementFailures();
+                    } else {
+                        testCount.incrementInfraFailures();
+                    }
+                    break;
+                default:
+                    testCount.incrementSkipped();
+                    break;
+            }
+            if (result.getDuration() != null) {
+                testCount.getDurations().record(result.getDuration());
+            }
+        }
+    }
+
+    public static File getFile() {
+        return new File(System.getProperty("resultsFile", "target/results.jsonl"));
+    }
+
+    // truncates the file, or appends to it when resuming, and starts the writer
+    public static synchronized void open() {
+        if (writer != null) {
+            return;
+        }
+        File file = getFile();
+        if (file.getAbsoluteFile().getParentFile() != null) {
+            file.getAbsoluteFile().getParentFile().mkdirs();
+        }
+        final FileChannel channel;
+        try {
+            if (ResumeListener.isResume()) {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ,
+                        StandardOpenOption.WRITE);
+                // drop the partial last line of a killed run, the appended events start on a line of their own
+                channel.truncate(getCompleteLength(channel));
+                channel.position(channel.size());
+            } else {
+                channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                        StandardOpenOption.TRUNCATE_EXISTING);
+            }
+        } catch (IOException ex) {
+            _logger.error("Unable to open the results file:[{}]", file.getAbsolutePath(), ex);
+            return;
+        }
+        writer = new Thread(() -> write(channel), "result-journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // length of the file up to the end of its last complete line
+    private static long getCompleteLength(FileChannel channel) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(4096);
+        long end = channel.size();
+        while (end > 0) {
+            long start = Math.max(end - buffer.capacity(), 0);
+            buffer.clear();
+            buffer.limit((int) (end - start));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, start + buffer.position()) < 0) {
+                    break;
+                }
+            }
+            for (int index = buffer.position() - 1; index >= 0; index--) {
+                if (buffer.get(index) == '\n') {
+                    return start + index + 1;
+                }
+            }
+            end = start;
+        }
+        return 0;
+    }
+
+    // waits until the queued events are written and synced
+    public static synchronized void close() {
+        if (writer == null) {
+            return;
+        }
+        QUEUE.offer(END);
+        try {
+            writer.join(TimeUnit.SECONDS.toMillis(30));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        writer = null;
+    }
+
+    private static void write(FileChannel channel) {
+        long syncInterval = Long.getLong("resultsSync", 1000);
+        long lastSync = System.currentTimeMillis();
+        List<ResultEvent> batch = new ArrayList<ResultEvent>(BATCH_SIZE);
+        try (OutputStream out = new BufferedOutputStream(Channels.newOutputStream(channel), 64 * 1024)) {
+            boolean end = false;
+            while (!end) {
+                ResultEvent first = QUEUE.poll(syncInterval, TimeUnit.MILLISECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    QUEUE.drainTo(batch, BATCH_SIZE - 1);
+                }
+                for (ResultEvent event : batch) {
+                    if (event == END) {
+                        end = true;
+                        continue;
+                    }
+                    out.write(MAPPER.writeValueAsBytes(event));
+                    out.write('\n');
+                }
+                batch.clear();
+                // visible to readers tailing the file
+                out.flush();
+                if (end || System.currentTimeMillis() - lastSync >= syncInterval) {
+                    channel.force(false);
+                    lastSync = System.currentTimeMillis();
+                }
+            }
+        } catch (IOException ex) {
+            _logger.error("Unable to write the results file:[{}]", getFile().getAbsolutePath(), ex);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // queue the event, returns immediately
+    public static void append(ResultEvent event) {
+        if (writer == null) {
+            return;
+        }
+        event.setThread(Thread.currentThread().getName());
+        QUEUE.offer(event);
+    }
+
+    public static void suite(String event, ISuite suite) {
+        ResultEvent result = new ResultEvent();
+        result.setType(ResultEvent.SUITE);
+        result.setEvent(event);
+        result.setTime(System.currentTimeMillis());
+        result.setSuite(suite.getName());
+        result.setShard(ShardListener.getShard());
+        append(result);
+    }
+
+    public static void test(String event, ITestContext context) {
+        ResultEvent result = new ResultEvent();
+        result.setType(ResultEvent.TEST);
+        result.setEvent(event);
+        result.setTime(System.currentTimeMillis());
+        result.setSuite(context.getSuite().getName());
+        result.setTest(context.getName());
+        result.setBrowser(BrowserMatrix.getEntryName(context));
+        append(result);
+    }
+
+    public static void method(String event, ITestResult testResult) {
+        ResultEvent result = new ResultEvent();
+        result.setType(ResultEvent.METHOD);
+        result.setEvent(event);
+        result.setTime(System.currentTimeMillis());
+        result.setSuite(testResult.getTestContext().getSuite().getName());
+        result.setTest(testResult.getTestContext().getName());
+        result.setBrowser(BrowserMatrix.getEntryName(testResult.getTestContext()));
+        result.setMethod(testResult.getTestClass().getRealClass().getName() + "." + testResult.getName());
+        if (testResult.getParameters() != null && testResult.getParameters().length > 0) {
+            result.setParameters(Arrays.toString(testResult.getParameters()));
+        }
+        String method = result.getTest() + ":" + result.getMethod()
+                + (result.getParameters() != null ? result.getParameters() : "");
+        AtomicInteger invocations = INVOCATIONS.get(method);
+        if (invocations == null) {
+            invocations = INVOCATIONS.computeIfAbsent(method, k -> new AtomicInteger());
+        }
+        result.setInvocation(result.isOutcome() ? invocations.getAndIncrement() : invocations.get());
+        if (result.isOutcome() || ResultEvent.RETRY.equals(event)) {
+            result.setDuration(testResult.getEndMillis() - testResult.getStartMillis());
+            if (testResult.getThrowable() != null) {
+                result.setError(String.valueOf(testResult.getThrowable()));
+            }
+            if (Boolean.TRUE.equals(testResult.getAttribute(SessionHealth.INFRA_FAILURE))) {
+                result.setInfra(true);
+            }
+        }
+        append(result);
+    }
+
+    // streams over the results file, the last outcome of a method invocation counts
+    public static Summary summarize() {
+        return summarize(getFile());
+    }
+
+    public static Summary summarize(File file) {
+        return summarize(Collections.singletonList(file));
+    }
+
+    // one summary of several results files, the shards of a suite (see ResultMerge)
+    public static Summary summarize(List<File> files) {
+        Summary summary = new Summary();
+        Map<String, ResultEvent> outcomes = new LinkedHashMap<String, ResultEvent>();
+        Map<String, Integer> attempts = new HashMap<String, Integer>();
+        for (File file : files) {
+            if (file.exists()) {
+                read(file, summary, outcomes, attempts);
+            } else {
+                _logger.warn("Results file not found:[{}]", file.getAbsolutePath());
+            }
+        }
+        for (ResultEvent outcome : outcomes.values()) {
+            Integer retried = attempts.get(outcome.methodId());
+            // a failure of the grid does not make the method unstable
+            if (retried != null || outcome.isTestFailure()) {
+                summary.unstable.add(outcome.getMethod());
+            }
+            if (retried != null) {
+                Flakiness flakiness = summary.retries.get(outcome.getMethod());
+                if (flakiness == null) {
+                    flakiness = new Flakiness();
+                    summary.retries.put(outcome.getMethod(), flakiness);
+                }
+                flakiness.retries += retried;
+                if (ResultEvent.SUCCESS.equals(outcome.getEvent())) {
+                    flakiness.flaky++;
+                } else if (outcome.isTestFailure()) {
+                    flakiness.failed++;
+                }
+            }
+            summary.count(summary.suite, outcome);
+            summary.count(summary.get(summary.tests, outcome.getTest()), outcome);
+            if (outcome.getBrowser() != null) {
+                summary.count(summary.get(summary.browsers, outcome.getBrowser()), outcome);
+            }
+            LatencyHistogram histogram = summary.methods.get(outcome.getMethod());
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                summary.methods.put(outcome.getMethod(), histogram);
+            }
+            if (outcome.getDuration() != null) {
+                histogram.record(outcome.getDuration());
+                String className = outcome.getMethod().substring(0, outcome.getMethod().lastIndexOf('.'));
+                Long total = summary.classes.get(className);
+                summary.classes.put(className, (total != null ? total : 0L) + outcome.getDuration());
+            }
+        }
+        return summary;
+    }
+
+    // streams over the events of one results file
+    public static void forEach(File file, Consumer<ResultEvent> consumer) {
+        try (MappingIterator<ResultEvent> events = MAPPER.readerFor(ResultEvent.class).readValues(file)) {
+            while (events.hasNextValue()) {
+                consumer.accept(events.nextValue());
+            }
+        } catch (IOException | RuntimeException ex) {
+            // a killed run may leave a partial last line
+            _logger.warn("Unable to read all the results:[{}]", file.getAbsolutePath(), ex);
+        }
+    }
+
+    // streams over one results file, the last outcome of each method invocation is kept
+    private static void read(File file, Summary summary, Map<String, ResultEvent> outcomes,
+            Map<String, Integer> attempts) {
+        forEach(file, event -> {
+            summary.events++;
+            if (ResultEvent.METHOD.equals(event.getType())) {
+                if (event.isOutcome()) {
+                    outcomes.put(event.methodId(), event);
+                } else if (ResultEvent.RETRY.equals(event.getEvent())) {
+                    attempts.merge(event.methodId(), 1, Integer::sum);
+                }
+            } else if (ResultEvent.TEST.equals(event.getType())) {
+                setTime(summary.get(summary.tests, event.getTest()), event);
+                if (event.getBrowser() != null) {
+                    setTime(summary.get(summary.browsers, event.getBrowser()), event);
+                }
+            } else if (ResultEvent.SUITE.equals(event.getType())) {
+                summary.suiteName = event.getSuite();
+                if (event.getShard() != null) {
+                    summary.shards.add(event.getShard());
+                }
+                setTime(summary.suite, event);
+            }
+        });
+    }
+
+    // first start and last finish
+    private static void setTime(TestCount testCount, ResultEvent event) {
+        if (ResultEvent.START.equals(event.getEvent())) {
+            if (testCount.getStartTime() == 0 || event.getTime() < testCount.getStartTime()) {
+                testCount.setStartTime(event.getTime());
+            }
+        } else if (ResultEvent.FINISH.equals(event.getEvent())) {
+            testCount.setEndTime(Math.max(testCount.getEndTime(), event.getTime()));
+        }
+    }
+}
@@ -0,0 +1,61 @@
+package org.qecamp.zalenium;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Merges the results files of the shards of a suite (see {@link ShardListener}) into one summary report and
+ * updates the duration history with the durations of all the shards.
+ * Arguments: results files or directories with results files (*.jsonl).
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ResultMerge {
+
+    public static void main(String[] args) {
+        List<File> files = new ArrayList<File>();
+        for (String arg : args) {
+            File file = new File(arg);
+            if (file.isDirectory()) {
+                File[] results = file.listFiles((dir, name) -> name.endsWith(".jsonl"));
+                if (results != null) {
+                    Arrays.sort(results);
+                    files.addAll(Arrays.asList(results));
+                }
+            } else {
+                files.add(file);
+            }
+        }
+        if (files.isEmpty()) {
+            _logger.error("Usage: ResultMerge <results.jsonl|directory>...");
+            System.exit(2);
+        }
+        ResultJournal.Summary summary = ResultJournal.summarize(files);
+        for (Map.Entry<String, TestCount> entry : summary.getTests().entrySet()) {
+            TestCount testCount = entry.getValue();
+            if (testCount.getStartTime() > 0 && testCount.getEndTime() >= testCount.getStartTime()) {
+                DurationHistory.recordTest(entry.getKey(), testCount.getEndTime() - testCount.getStartTime());
+            }
+        }
+        for (Map.Entry<String, Long> entry : summary.getClasses().entrySet()) {
+            DurationHistory.recordClass(entry.getKey(), entry.getValue());
+        }
+        DurationHistory.recordFlakiness(summary);
+        DurationHistory.save();
+        StringBuilder builder = new StringBuilder();
+        summary.appendReport(builder);
+        builder.append("\n\nResults: {files:").append(files.size()).append(", shards:").append(summary.getShards())
+                .append(", events:").append(summary.getEvents()).append("}");
+        builder.append("\n*************************** END ******************************\n");
+        _logger.info("*** Merged summary report:{}", builder.toString());
+        // non zero when a test did not pass, the merge step fails the pipeline like a single run would
+        System.exit(summary.getSuite().getTotal() == summary.getSuite().getSuccess() ? 0 : 1);
+    }
+}
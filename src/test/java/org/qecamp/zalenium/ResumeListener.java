@@ -0,0 +1,127 @@
+package org.qecamp.zalenium;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.testng.IMethodInstance;
+import org.testng.IMethodInterceptor;
+import org.testng.ITestContext;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Resumes a run that did not finish, -Dresume. The results file of the previous run (see {@link ResultJournal}) is
+ * the checkpoint: tests finished with all their methods passed are not run, in the other tests the methods that
+ * passed on every invocation are not run. The events of this run are appended to the file, the summary covers both
+ * runs. The tests are dropped by a step of {@link SuitePlanListener} after the browser matrix fan out and the shard,
+ * the names match the fanned out tests of the checkpoint. Declare it as a listener for the methods.
+ */
+@Slf4j
+public class ResumeListener implements IMethodInterceptor {
+    private static Checkpoint checkpoint = null;
+
+    private static class Checkpoint {
+        // "test|class.method" -> passed on every invocation
+        private final Map<String, Boolean> methods = new HashMap<String, Boolean>();
+        // test -> finished
+        private final Map<String, Boolean> tests = new LinkedHashMap<String, Boolean>();
+
+        private boolean isPassed(String test, String method) {
+            return Boolean.TRUE.equals(methods.get(test + "|" + method));
+        }
+
+        private boolean isPassed(String test) {
+            if (!Boolean.TRUE.equals(tests.get(test))) {
+                return false;
+            }
+            boolean any = false;
+            for (Map.Entry<String, Boolean> entry : methods.entrySet()) {
+                if (entry.getKey().startsWith(test + "|")) {
+                    if (!entry.getValue()) {
+                        return false;
+                    }
+                    any = true;
+                }
+            }
+            return any;
+        }
+    }
+
+    public static boolean isResume() {
+        return Boolean.getBoolean("resume");
+    }
+
+    // read once, before the events of this run are appended
+    private static synchronized Checkpoint getCheckpoint() {
+        if (checkpoint == null) {
+            checkpoint = new Checkpoint();
+            File file = ResultJournal.getFile();
+            if (!file.exists()) {
+                _logger.warn("Nothing to resume, results file not found:[{}]", file.getAbsolutePath());
+                return checkpoint;
+            }
+            final Map<String, ResultEvent> outcomes = new HashMap<String, ResultEvent>();
+            ResultJournal.forEach(file, event -> {
+                if (ResultEvent.METHOD.equals(event.getType()) && event.isOutcome()) {
+                    outcomes.put(event.methodId(), event);
+                } else if (ResultEvent.TEST.equals(event.getType())) {
+                    checkpoint.tests.put(event.getTest(), ResultEvent.FINISH.equals(event.getEvent()));
+                }
+            });
+            for (ResultEvent outcome : outcomes.values()) {
+                checkpoint.methods.merge(outcome.getTest() + "|" + outcome.getMethod(),
+                        ResultEvent.SUCCESS.equals(outcome.getEvent()), Boolean::logicalAnd);
+            }
+        }
+        return checkpoint;
+    }
+
+    public void alter(List<XmlSuite> suites) {
+        if (!isResume()) {
+            return;
+        }
+        Checkpoint current = getCheckpoint();
+        for (XmlSuite suite : suites) {
+            List<XmlTest> tests = new ArrayList<XmlTest>();
+            for (XmlTest test : suite.getTests()) {
+                if (!current.isPassed(test.getName())) {
+                    tests.add(test);
+                }
+            }
+            _logger.info("Resume from [{}], tests passed:{}, tests to run:{}", ResultJournal.getFile().getPath(),
+                    suite.getTests().size() - tests.size(), tests.size());
+            suite.setTests(tests);
+        }
+    }
+
+    @Override
+    public List<IMethodInstance> intercept(List<IMethodInstance> methods, ITestContext context) {
+        if (!isResume()) {
+            return methods;
+        }
+        Checkpoint current = getCheckpoint();
+        List<IMethodInstance> remaining = new ArrayList<IMethodInstance>();
+        Set<String> passed = new HashSet<String>();
+        for (IMethodInstance instance : methods) {
+            String method = instance.getMethod().getRealClass().getName() + "." + instance.getMethod().getMethodName();
+            if (current.isPassed(context.getName(), method)) {
+                passed.add(method);
+            } else {
+                remaining.add(instance);
+            }
+        }
+        if (!passed.isEmpty()) {
+            _logger.info("Resume [{}], methods passed:{}, methods to run:{}", context.getName(), passed.size(),
+                    remaining.size());
+        }
+        return remaining;
+    }
+}
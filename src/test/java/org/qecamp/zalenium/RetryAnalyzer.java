@@ -0,0 +1,78 @@
+package org.qecamp.zalenium;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.testng.IRetryAnalyzer;
+import org.testng.ITestResult;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Re-runs a failed test method right away on the same warm session, reset to the url the method started on.
+ * -DretryCount retries per method and parameters of a test, the invocations of a method with an invocation count
+ * share them (default: 0, no retry), -DretryBudget retries per run (default: 20).
+ * A retried attempt is reported by TestNG as skipped, the listener counts only the final outcome.
+ */
+@Slf4j
+public class RetryAnalyzer implements IRetryAnalyzer {
+    // attribute of a failed attempt that is retried, value: retry number
+    public static final String RETRY = "retry";
+    // attribute set when the method starts, the session is reset to this url before a retry
+    public static final String START_URL = "startUrl";
+
+    private static final AtomicInteger BUDGET_USED = new AtomicInteger(0);
+    private final ConcurrentHashMap<String, AtomicInteger> retries = new ConcurrentHashMap<String, AtomicInteger>();
+
+    public static boolean isEnabled() {
+        return Integer.getInteger("retryCount", 0) > 0;
+    }
+
+    public static boolean isRetried(ITestResult result) {
+        return result.getAttribute(RETRY) != null;
+    }
+
+    @Override
+    public boolean retry(ITestResult result) {
+        AtomicInteger count = retries.computeIfAbsent(result.getTestContext().getName() + ":"
+                + Arrays.toString(result.getParameters()), k -> new AtomicInteger(0));
+        if (count.get() >= Integer.getInteger("retryCount", 0)) {
+            return false;
+        }
+        if (BUDGET_USED.incrementAndGet() > Integer.getInteger("retryBudget", 20)) {
+            BUDGET_USED.decrementAndGet();
+            _logger.info("Retry budget exhausted, not retrying:[{}]", result.getName());
+            return false;
+        }
+        if (!reset(result)) {
+            BUDGET_USED.decrementAndGet();
+            return false;
+        }
+        result.setAttribute(RETRY, count.incrementAndGet());
+        return true;
+    }
+
+    // back to the url the method started on, the session and its cookies are kept. After a failure of the session
+    // the retry runs on a new session (see SessionHealth)
+    private boolean reset(ITestResult result) {
+        try {
+            // a dead session is replaced by getDriver
+            SessionHealth.markDeadIfInfra(WebDriverFactory.findDriver(WebDriverFactory.getDriverName(
+                    result.getTestContext())), result.getThrowable());
+            RemoteWebDriver webDriver = WebDriverFactory.getDriver(result.getTestContext());
+            ZaleniumChannel.flush(webDriver);
+            Object startUrl = result.getAttribute(START_URL);
+            if (startUrl != null) {
+                webDriver.get(startUrl.toString());
+            }
+            DomQuery.invalidate(webDriver);
+            NavigationState.invalidate(webDriver);
+            return true;
+        } catch (Exception ex) {
+            _logger.warn("Unable to reset the session, not retrying:[{}]", result.getName(), ex);
+            return false;
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package org.qecamp.zalenium;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+
+import org.testng.IAnnotationTransformer;
+import org.testng.annotations.ITestAnnotation;
+
+/**
+ * Sets {@link RetryAnalyzer} on the test methods without a retry analyzer, when the retries are enabled.
+ */
+public class RetryTransformer implements IAnnotationTransformer {
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public void transform(ITestAnnotation annotation, Class testClass, Constructor testConstructor,
+            Method testMethod) {
+        if (RetryAnalyzer.isEnabled() && annotation.getRetryAnalyzer() == null) {
+            annotation.setRetryAnalyzer(RetryAnalyzer.class);
+        }
+    }
+}
@@ -0,0 +1,346 @@
+package org.qecamp.zalenium;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.HttpURLConnection;
+import java.net.SocketTimeoutException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.openqa.selenium.NoSuchSessionException;
+import org.openqa.selenium.SessionNotCreatedException;
+import org.openqa.selenium.remote.RemoteWebDriver;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.UnreachableBrowserException;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Health of the live sessions. Every -DhealthInterval seconds (default: 15, 0 disables the monitor) the idle sessions
+ * without a command answered in the interval are probed with a read of their url within -DhealthTimeout seconds
+ * (default: 5). A session runs one command at a time, a session with a command in flight is never probed: it is hung
+ * when its command times out (-DhttpCommandTimeout) or when its hub does not answer its status within
+ * -DhealthTimeout while the command runs for longer. A session the grid does not know any more or that does not
+ * answer is dead: its commands fail at once, pooled sessions are replaced in the background and a leased one is
+ * replaced on the next {@link WebDriverFactory#getDriver(String)}. A test failed on a dead session is counted as an
+ * infrastructure failure.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class SessionHealth {
+    // attribute of a test result failed on a dead session or by the grid
+    public static final String INFRA_FAILURE = "infraFailure";
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+    // the driver reports a missing session with this status (json wire protocol)
+    private static final int NO_SUCH_SESSION = 6;
+
+    // sessionId -> command activity
+    private static final ConcurrentHashMap<String, Activity> ACTIVITIES = new ConcurrentHashMap<String, Activity>();
+    private static final Set<String> DEAD = ConcurrentHashMap.newKeySet();
+    private static final AtomicBoolean STARTED = new AtomicBoolean(false);
+    private static final LongAdder PROBES = new LongAdder();
+    private static final LongAdder PROBES_SKIPPED = new LongAdder();
+    private static final LongAdder HUB_CHECKS = new LongAdder();
+    private static final LongAdder DEAD_SESSIONS = new LongAdder();
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+    private static final ExecutorService PROBERS = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "session-probe-" + THREAD_NUMBER.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+    private static ScheduledExecutorService monitor = null;
+
+    private static class Activity {
+        private volatile long lastResponse = System.currentTimeMillis();
+        // start of the commands running, 0 when none
+        private volatile long runningSince = 0;
+        // start of the last command, a probe sent meanwhile may wait behind it
+        private volatile long lastStart = 0;
+        private final AtomicInteger running = new AtomicInteger(0);
+        private final AtomicBoolean probing = new AtomicBoolean(false);
+    }
+
+    private static long getInterval() {
+        return TimeUnit.SECONDS.toMillis(Long.getLong("healthInterval", 15L));
+    }
+
+    private static int getTimeout() {
+        return (int) TimeUnit.SECONDS.toMillis(Long.getLong("healthTimeout", 5L));
+    }
+
+    // starts the monitor with the first session
+    static void start() {
+        if (getInterval() <= 0 || !STARTED.compareAndSet(false, true)) {
+            return;
+        }
+        synchronized (SessionHealth.class) {
+            monitor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "session-health");
+                thread.setDaemon(true);
+                return thread;
+            });
+            monitor.scheduleWithFixedDelay(SessionHealth::check, getInterval(), getInterval(),
+                    TimeUnit.MILLISECONDS);
+        }
+    }
+
+    static synchronized void stop() {
+        if (monitor != null) {
+            monitor.shutdownNow();
+            monitor = null;
+        }
+    }
+
+    private static Activity getActivity(String sessionId) {
+        Activity activity = ACTIVITIES.get(sessionId);
+        if (activity == null) {
+            activity = ACTIVITIES.computeIfAbsent(sessionId, k -> new Activity());
+        }
+        return activity;
+    }
+
+    // command sent on the session, see TimedCommandExecutor
+    static void commandStarted(String sessionId) {
+        Activity activity = getActivity(sessionId);
+        long now = System.currentTimeMillis();
+        activity.lastStart = now;
+        if (activity.running.getAndIncrement() == 0) {
+            activity.runningSince = now;
+        }
+    }
+
+    // an answer proves the session alive, unless the grid answered that it does not know the session
+    static void commandFinished(String sessionId, Response response, boolean quit) {
+        Activity activity = getActivity(sessionId);
+        if (response != null && !Integer.valueOf(NO_SUCH_SESSION).equals(response.getStatus())) {
+            activity.lastResponse = System.currentTimeMillis();
+        }
+        if (activity.running.decrementAndGet() == 0) {
+            activity.runningSince = 0;
+        }
+        if (response != null && !quit && Integer.valueOf(NO_SUCH_SESSION).equals(response.getStatus())) {
+            markDead(sessionId, "session not found on the grid");
+        }
+    }
+
+    // the command got no answer within its own timeout, the session is hung
+    static void commandTimedOut(String sessionId) {
+        markDead(sessionId, "command timed out");
+    }
+
+    private static void markDead(String sessionId, String reason) {
+        for (RemoteWebDriver webDriver : SessionRegistry.getLive()) {
+            if (webDriver.getSessionId() != null && sessionId.equals(webDriver.getSessionId().toString())) {
+                markDead(webDriver, reason);
+            }
+        }
+    }
+
+    // call it when the session is quit, with the id taken before the quit (quit clears it)
+    static void forget(String sessionId) {
+        ACTIVITIES.remove(sessionId);
+        DEAD.remove(sessionId);
+    }
+
+    public static boolean isDead(String sessionId) {
+        return !DEAD.isEmpty() && sessionId != null && DEAD.contains(sessionId);
+    }
+
+    public static boolean isDead(RemoteWebDriver webDriver) {
+        return !DEAD.isEmpty() && webDriver != null && webDriver.getSessionId() != null
+                && DEAD.contains(webDriver.getSessionId().toString());
+    }
+
+    // the session will not be used again, see FailureArtifacts
+    static void markDead(RemoteWebDriver webDriver, String reason) {
+        if (webDriver.getSessionId() != null && DEAD.add(webDriver.getSessionId().toString())) {
+            DEAD_SESSIONS.increment();
+            _logger.warn("Dead session, {}:[{}]", reason, SessionRegistry.describe(webDriver));
+            WebDriverFactory.evict(webDriver);
+        }
+    }
+
+    // marks the session dead when the failure is of the grid or of the session and not of the test: the session is
+    // dead or the error is a lost connection, a missing session or a command timeout. The session will be replaced,
+    // returns whether the failure is an infrastructure failure
+    public static boolean markDeadIfInfra(RemoteWebDriver webDriver, Throwable throwable) {
+        if (webDriver != null && isDead(webDriver)) {
+            return true;
+        }
+        int depth = 0;
+        for (Throwable cause = throwable; cause != null && depth < 10; cause = cause.getCause(), depth++) {
+            if (cause instanceof UnreachableBrowserException || cause instanceof NoSuchSessionException
+                    || cause instanceof SessionNotCreatedException || cause instanceof ConnectException
+                    || cause instanceof SocketTimeoutException) {
+                if (webDriver != null) {
+                    markDead(webDriver, cause.getClass().getSimpleName());
+                }
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void check() {
+        try {
+            long now = System.currentTimeMillis();
+            // sessions with a command running for longer than the timeout, per hub
+            Map<HubRouter.Hub, List<RemoteWebDriver>> busy = new HashMap<HubRouter.Hub, List<RemoteWebDriver>>();
+            for (final RemoteWebDriver webDriver : SessionRegistry.getLive()) {
+                if (webDriver.getSessionId() == null || isDead(webDriver)) {
+                    continue;
+                }
+                final Activity activity = getActivity(webDriver.getSessionId().toString());
+                long runningSince = activity.runningSince;
+                // a probe would wait behind the command in flight, only the hub is checked
+                if (activity.running.get() > 0) {
+                    HubRouter.Hub hub = HubRouter.getHub(webDriver);
+                    if (hub != null && runningSince > 0 && now - runningSince > getTimeout()) {
+                        List<RemoteWebDriver> webDrivers = busy.get(hub);
+                        if (webDrivers == null) {
+                            webDrivers = busy.computeIfAbsent(hub, k -> new ArrayList<RemoteWebDriver>());
+                        }
+                        webDrivers.add(webDriver);
+                    }
+                    PROBES_SKIPPED.increment();
+                    continue;
+                }
+                // the commands of the tests prove the session alive
+                if (now - activity.lastResponse < getInterval()) {
+                    PROBES_SKIPPED.increment();
+                    continue;
+                }
+                if (activity.probing.compareAndSet(false, true)) {
+                    PROBERS.execute(() -> {
+                        try {
+                            probe(webDriver, activity);
+                        } finally {
+                            activity.probing.set(false);
+                        }
+                    });
+                }
+            }
+            for (final Map.Entry<HubRouter.Hub, List<RemoteWebDriver>> entry : busy.entrySet()) {
+                PROBERS.execute(() -> checkHub(entry.getKey(), entry.getValue()));
+            }
+        } catch (Exception ex) {
+            _logger.error("Exception, ", ex);
+        }
+    }
+
+    // the status of the hub, without a command on its sessions. A hub that does not answer lost the busy sessions
+    private static void checkHub(HubRouter.Hub hub, List<RemoteWebDriver> webDrivers) {
+        HUB_CHECKS.increment();
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(hub.getStatusUrl()).openConnection();
+            connection.setConnectTimeout(getTimeout());
+            connection.setReadTimeout(getTimeout());
+            int code = connection.getResponseCode();
+            if (code < 500) {
+                return;
+            }
+            for (RemoteWebDriver webDriver : webDrivers) {
+                markDead(webDriver, "hub failed, status:" + code + ", hub:[" + hub.getUrl() + "]");
+            }
+        } catch (IOException ex) {
+            for (RemoteWebDriver webDriver : webDrivers) {
+                markDead(webDriver, "hub not answering within " + getTimeout() + "ms, " + ex.toString());
+            }
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // reads the url of the session straight from the hub, with a short timeout
+    private static void probe(RemoteWebDriver webDriver, Activity activity) {
+        HubRouter.Hub hub = HubRouter.getHub(webDriver);
+        if (hub == null) {
+            return;
+        }
+        // a command started since the check, the session is busy
+        long start = System.currentTimeMillis();
+        if (activity.running.get() > 0) {
+            PROBES_SKIPPED.increment();
+            return;
+        }
+        PROBES.increment();
+        String url = hub.getUrl().replaceFirst("/$", "") + "/session/" + webDriver.getSessionId() + "/url";
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) new URL(url).openConnection();
+            connection.setConnectTimeout(getTimeout());
+            connection.setReadTimeout(getTimeout());
+            int code = connection.getResponseCode();
+            InputStream stream = code < 400 ? connection.getInputStream() : connection.getErrorStream();
+            JsonNode response = null;
+            if (stream != null) {
+                try (InputStream in = stream) {
+                    response = MAPPER.readTree(in);
+                } catch (IOException ex) {
+                    _logger.trace("Probe response is not json, url:[{}]", url, ex);
+                }
+            }
+            if (isMissing(code, response)) {
+                markDead(webDriver, "session not found on the grid");
+            } else {
+                activity.lastResponse = System.currentTimeMillis();
+            }
+        } catch (IOException ex) {
+            // the probe may have waited behind a command started meanwhile
+            if (activity.lastStart >= start || activity.running.get() > 0) {
+                _logger.debug("Probe not answered behind a command, SessionId:[{}]", webDriver.getSessionId());
+                return;
+            }
+            markDead(webDriver, "no answer within " + getTimeout() + "ms, " + ex.toString());
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    // the grid does not know the session, or could not forward the command to its node
+    private static boolean isMissing(int code, JsonNode response) {
+        if (response == null) {
+            return code >= 500;
+        }
+        if (response.path("status").asInt(0) == NO_SUCH_SESSION) {
+            return true;
+        }
+        String error = response.path("value").path("error").asText("");
+        return "invalid session id".equals(error) || "no such session".equals(error);
+    }
+
+    public static String stats() {
+        StringBuilder builder = new StringBuilder();
+        builder
+                .append("probes:").append(PROBES.sum())
+                .append(", probes_skipped:").append(PROBES_SKIPPED.sum())
+                .append(", hub_checks:").append(HUB_CHECKS.sum())
+                .append(", dead:").append(DEAD_SESSIONS.sum());
+        return builder.toString();
+    }
+}
@@ -0,0 +1,173 @@
+package org.qecamp.zalenium;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Live selenium sessions, from creation to quit. Used to quit all the sessions at the end of the suite, also when
+ * the build is aborted, and to find the sessions nobody holds any more (leaked), they keep a grid slot until
+ * zal:idleTimeout expires.
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+class SessionRegistry {
+    // RemoteWebDriver does not override equals, keys are compared by identity
+    private static final ConcurrentHashMap<RemoteWebDriver, Session> LIVE = new ConcurrentHashMap<RemoteWebDriver, Session>();
+    private static final AtomicLong CREATED = new AtomicLong();
+    private static final AtomicLong QUIT = new AtomicLong();
+    private static final AtomicLong LEAKED = new AtomicLong();
+    private static final AtomicLong NOT_CLOSED = new AtomicLong();
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+    private static final ExecutorService TERMINATOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "webdriver-quit-" + THREAD_NUMBER.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Session {
+        private final String name;
+        private final long created = System.currentTimeMillis();
+        // key of the test holding the session, a pooled session is created before its test is known
+        private volatile String leasedBy;
+
+        Session(String name) {
+            this.name = name;
+        }
+    }
+
+    static void leased(RemoteWebDriver webDriver, String key) {
+        Session session = LIVE.get(webDriver);
+        if (session != null) {
+            session.leasedBy = key;
+        }
+    }
+
+    static void register(RemoteWebDriver webDriver, String name) {
+        LIVE.put(webDriver, new Session(name));
+        CREATED.incrementAndGet();
+        SessionHealth.start();
+    }
+
+    static List<RemoteWebDriver> getLive() {
+        return new ArrayList<RemoteWebDriver>(LIVE.keySet());
+    }
+
+    static int getLiveCount() {
+        return LIVE.size();
+    }
+
+    static void leaked(RemoteWebDriver webDriver) {
+        LEAKED.incrementAndGet();
+        _logger.warn("Leaked session, created but never released or removed:[{}]", describe(webDriver));
+    }
+
+    static String describe(RemoteWebDriver webDriver) {
+        Session session = LIVE.get(webDriver);
+        StringBuilder builder = new StringBuilder();
+        builder.append("SessionId:").append(webDriver.getSessionId());
+        if (session != null) {
+            builder
+                    .append(", name:").append(session.name)
+                    .append(", leased_by:").append(session.leasedBy)
+                    .append(", age:").append(TestCount.timeTaken(System.currentTimeMillis() - session.created));
+        }
+        return builder.toString();
+    }
+
+    // sends the pending zalenium status and quits, returns false when the quit failed
+    static boolean quit(RemoteWebDriver webDriver) {
+        if (webDriver == null) {
+            return true;
+        }
+        boolean dead = SessionHealth.isDead(webDriver);
+        // quit clears the session id of the driver
+        Object sessionId = webDriver.getSessionId();
+        try {
+            // the pending status of a dead session can not be sent
+            if (dead) {
+                ZaleniumChannel.discard(webDriver);
+            } else {
+                ZaleniumChannel.close(webDriver);
+            }
+            webDriver.quit();
+            QUIT.incrementAndGet();
+            return true;
+        } catch (Exception ex) {
+            if (dead) {
+                // the grid already dropped it, nothing left to close
+                _logger.debug("Dead session not quit, SessionId:[{}], {}", sessionId, ex.toString());
+                return true;
+            }
+            _logger.error("Exception on quit, SessionId:[{}]", sessionId, ex);
+            return false;
+        } finally {
+            LIVE.remove(webDriver);
+            HubRouter.release(webDriver);
+            DomQuery.forget(webDriver);
+            if (sessionId != null) {
+                SessionHealth.forget(sessionId.toString());
+                NavigationState.forget(sessionId.toString());
+                FailureArtifacts.forget(sessionId.toString());
+            }
+        }
+    }
+
+    // quits in the background, a dead session may take the command timeout to answer
+    static void quitLater(RemoteWebDriver webDriver) {
+        TERMINATOR.execute(() -> quit(webDriver));
+    }
+
+    // quits the sessions concurrently, each one has 'timeout' to close, returns the sessions that did not close
+    static List<RemoteWebDriver> quitAll(Collection<RemoteWebDriver> webDrivers, long timeout, TimeUnit unit) {
+        Map<RemoteWebDriver, Future<Boolean>> futures = new LinkedHashMap<RemoteWebDriver, Future<Boolean>>();
+        for (RemoteWebDriver webDriver : webDrivers) {
+            futures.put(webDriver, TERMINATOR.submit(() -> quit(webDriver)));
+        }
+        // all of them started together, one deadline covers each session
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        List<RemoteWebDriver> notClosed = new ArrayList<RemoteWebDriver>();
+        for (Map.Entry<RemoteWebDriver, Future<Boolean>> entry : futures.entrySet()) {
+            boolean closed = false;
+            try {
+                closed = entry.getValue().get(Math.max(deadline - System.nanoTime(), 0), TimeUnit.NANOSECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                entry.getValue().cancel(true);
+            }
+            if (!closed) {
+                notClosed.add(entry.getKey());
+                NOT_CLOSED.incrementAndGet();
+            }
+        }
+        return notClosed;
+    }
+
+    static String stats() {
+        StringBuilder builder = new StringBuilder();
+        builder
+                .append("created:").append(CREATED.get())
+                .append(", quit:").append(QUIT.get())
+                .append(", live:").append(LIVE.size())
+                .append(", leaked:").append(LEAKED.get())
+                .append(", not_closed:").append(NOT_CLOSED.get());
+        return builder.toString();
+    }
+}
@@ -0,0 +1,123 @@
+package org.qecamp.zalenium;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import org.testng.xml.XmlClass;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Runs a shard of the suite, -Dshard=i/n (i from 1 to n). Tests (or classes with -DshardBy=classes) are assigned to
+ * the shards longest expected duration first, each one to the shard with the lowest total (see
+ * {@link DurationHistory}), without history all the units weigh the same. The assignment only depends on the suite
+ * and the history file, every agent computes the same shards. Step of {@link SuitePlanListener} right after the
+ * browser matrix fan out, the units are the fanned out tests. Results of the shards are merged with
+ * {@link ResultMerge}.
+ */
+@Slf4j
+public class ShardListener {
+
+    private static class Unit {
+        private final XmlTest test;
+        private final XmlClass xmlClass;
+        private final String name;
+        private long expected;
+
+        Unit(XmlTest test, XmlClass xmlClass) {
+            this.test = test;
+            this.xmlClass = xmlClass;
+            this.name = xmlClass != null ? test.getName() + "/" + xmlClass.getName() : test.getName();
+        }
+    }
+
+    // current shard as "i/n", null when not sharded
+    public static String getShard() {
+        return System.getProperty("shard");
+    }
+
+    public void alter(List<XmlSuite> suites) {
+        String shard = getShard();
+        if (shard == null) {
+            return;
+        }
+        String[] parts = shard.split("/");
+        int index = Integer.parseInt(parts[0].trim());
+        int count = Integer.parseInt(parts[1].trim());
+        if (count < 1 || index < 1 || index > count) {
+            throw new IllegalArgumentException("Invalid shard:" + shard + ", expected i/n with 1 <= i <= n");
+        }
+        boolean byClass = "classes".equalsIgnoreCase(System.getProperty("shardBy", "tests"));
+        for (XmlSuite suite : suites) {
+            List<Unit> units = getUnits(suite, byClass);
+            List<Unit> selected = assign(units, index, count);
+            List<XmlTest> tests = new ArrayList<XmlTest>();
+            for (XmlTest test : suite.getTests()) {
+                List<XmlClass> classes = new ArrayList<XmlClass>();
+                boolean keep = false;
+                for (Unit unit : selected) {
+                    if (unit.test == test) {
+                        keep = true;
+                        if (unit.xmlClass != null) {
+                            classes.add(unit.xmlClass);
+                        }
+                    }
+                }
+                if (keep) {
+                    if (byClass) {
+                        test.setXmlClasses(classes);
+                    }
+                    tests.add(test);
+                }
+            }
+            suite.setTests(tests);
+            _logger.info("Shard {}, tests:{}, units:{} of {}", shard, tests.size(), selected.size(), units.size());
+        }
+    }
+
+    private List<Unit> getUnits(XmlSuite suite, boolean byClass) {
+        List<Unit> units = new ArrayList<Unit>();
+        List<Long> durations = new ArrayList<Long>();
+        for (XmlTest test : suite.getTests()) {
+            if (byClass) {
+                for (XmlClass xmlClass : test.getXmlClasses()) {
+                    units.add(new Unit(test, xmlClass));
+                    durations.add(DurationHistory.getClassDuration(xmlClass.getName()));
+                }
+            } else {
+                units.add(new Unit(test, null));
+                durations.add(DurationHistory.getTestDuration(test.getName()));
+            }
+        }
+        List<Long> expected = DurationHistory.expected(durations);
+        for (int index = 0; index < units.size(); index++) {
+            units.get(index).expected = expected != null ? expected.get(index) : 1L;
+        }
+        return units;
+    }
+
+    // longest processing time first, ties broken by name so the result does not depend on the declared order
+    private List<Unit> assign(List<Unit> units, int index, int count) {
+        List<Unit> sorted = new ArrayList<Unit>(units);
+        sorted.sort(Comparator.comparing((Unit unit) -> unit.expected).reversed()
+                .thenComparing(unit -> unit.name));
+        long[] loads = new long[count];
+        List<Unit> selected = new ArrayList<Unit>();
+        for (Unit unit : sorted) {
+            int shard = 0;
+            for (int candidate = 1; candidate < count; candidate++) {
+                if (loads[candidate] < loads[shard]) {
+                    shard = candidate;
+                }
+            }
+            loads[shard] += unit.expected;
+            if (shard == index - 1) {
+                selected.add(unit);
+            }
+        }
+        return selected;
+    }
+}
@@ -0,0 +1,123 @@
+package org.qecamp.zalenium;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.openqa.selenium.remote.http.HttpClient;
+import org.openqa.selenium.remote.internal.OkHttpClient;
+
+import okhttp3.ConnectionPool;
+import okhttp3.Credentials;
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Single http transport for all the drivers. One keep-alive connection pool is shared by every session, requests
+ * per route (host:port) are bounded, idle connections are evicted after the keep alive time.
+ * Options: -DhttpMaxPerRoute (default: 64), -DhttpMaxIdle (default: 64), -DhttpKeepAlive seconds (default: 300),
+ * -DhttpCommandTimeout seconds (default: 180), -DhttpSessionTimeout seconds (default: 600)
+ */
+public class SharedHttpClientFactory implements HttpClient.Factory {
+    private static final SharedHttpClientFactory INSTANCE = new SharedHttpClientFactory();
+
+    private final int maxPerRoute = Integer.getInteger("httpMaxPerRoute", 64);
+    private final int commandTimeout = Integer.getInteger("httpCommandTimeout", 180);
+    private final int sessionTimeout = Integer.getInteger("httpSessionTimeout", 600);
+    private final ConnectionPool connectionPool = new ConnectionPool(Integer.getInteger("httpMaxIdle", 64),
+            Integer.getInteger("httpKeepAlive", 300), TimeUnit.SECONDS);
+    private final ConcurrentHashMap<String, Semaphore> routes = new ConcurrentHashMap<String, Semaphore>();
+    // time spent waiting for a free connection of the route
+    private final LatencyHistogram waitTime = new LatencyHistogram();
+    private final okhttp3.OkHttpClient client;
+
+    private SharedHttpClientFactory() {
+        client = new okhttp3.OkHttpClient.Builder()
+                .connectionPool(connectionPool)
+                .followRedirects(true)
+                .followSslRedirects(true)
+                .connectTimeout(30, TimeUnit.SECONDS)
+                .readTimeout(commandTimeout, TimeUnit.SECONDS)
+                .addInterceptor(new RouteLimiter())
+                .build();
+    }
+
+    public static SharedHttpClientFactory getInstance() {
+        return INSTANCE;
+    }
+
+    @Override
+    public HttpClient createClient(URL url) {
+        String userInfo = url.getUserInfo();
+        if (userInfo == null || userInfo.isEmpty()) {
+            return new OkHttpClient(client, url);
+        }
+        String[] credentials = userInfo.split(":", 2);
+        final String authorization = Credentials.basic(credentials[0], credentials.length > 1 ? credentials[1] : "");
+        return new OkHttpClient(client.newBuilder()
+                .authenticator((route, response) -> response.request().newBuilder()
+                        .header("Authorization", authorization).build())
+                .build(), url);
+    }
+
+    @Override
+    public void cleanupIdleClients() {
+        connectionPool.evictAll();
+    }
+
+    // bounds the requests per route and sets the timeout per command, a new session may take minutes on the grid
+    private class RouteLimiter implements Interceptor {
+        @Override
+        public Response intercept(Chain chain) throws IOException {
+            Request request = chain.request();
+            String route = request.url().host() + ":" + request.url().port();
+            Semaphore permits = routes.get(route);
+            if (permits == null) {
+                permits = routes.computeIfAbsent(route, k -> new Semaphore(maxPerRoute, true));
+            }
+            long start = System.nanoTime();
+            try {
+                permits.acquire();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while waiting for a connection to " + route, ex);
+            }
+            waitTime.record((System.nanoTime() - start) / 1000000L);
+            try {
+                if (isNewSession(request)) {
+                    return chain.withReadTimeout(sessionTimeout, TimeUnit.SECONDS).proceed(request);
+                }
+                return chain.proceed(request);
+            } finally {
+                permits.release();
+            }
+        }
+
+        private boolean isNewSession(Request request) {
+            return "POST".equals(request.method()) && request.url().encodedPath().endsWith("/session");
+        }
+    }
+
+    public int getLeased() {
+        int leased = 0;
+        for (Semaphore permits : routes.values()) {
+            leased += maxPerRoute - permits.availablePermits();
+        }
+        return leased;
+    }
+
+    public String stats() {
+        StringBuilder builder = new StringBuilder();
+        builder
+                .append("connections:").append(connectionPool.connectionCount())
+                .append(", idle:").append(connectionPool.idleConnectionCount())
+                .append(", leased:").append(getLeased())
+                .append(", max_per_route:").append(maxPerRoute)
+                .append(", routes:").append(routes.size())
+                .append(", wait_time:[").append(waitTime).append("]");
+        return builder.toString();
+    }
+}
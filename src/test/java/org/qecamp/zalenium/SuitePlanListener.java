@@ -0,0 +1,34 @@
+package org.qecamp.zalenium;
+
+import java.util.List;
+
+import org.testng.IAlterSuiteListener;
+import org.testng.xml.XmlSuite;
+
+/**
+ * Plans the run: the only listener altering the suites, it runs the steps in a fixed order. testng runs its alter
+ * suite listeners in no given order, each step here works on the tests left by the previous one.
+ * <ol>
+ * <li>{@link BrowserMatrixListener}, fans out the tests on the browser matrix</li>
+ * <li>{@link ShardListener}, keeps the tests of the shard</li>
+ * <li>{@link ResumeListener}, drops the tests passed in the run resumed</li>
+ * <li>{@link GridCapacityListener}, sizes the thread count to the free slots of the grid</li>
+ * <li>{@link DurationOrderListener}, orders the tests longest expected duration first</li>
+ * </ol>
+ */
+public class SuitePlanListener implements IAlterSuiteListener {
+    private final BrowserMatrixListener browserMatrix = new BrowserMatrixListener();
+    private final ShardListener shard = new ShardListener();
+    private final ResumeListener resume = new ResumeListener();
+    private final GridCapacityListener gridCapacity = new GridCapacityListener();
+    private final DurationOrderListener durationOrder = new DurationOrderListener();
+
+    @Override
+    public void alter(List<XmlSuite> suites) {
+        browserMatrix.alter(suites);
+        shard.alter(suites);
+        resume.alter(suites);
+        gridCapacity.alter(suites);
+        durationOrder.alter(suites);
+    }
+}
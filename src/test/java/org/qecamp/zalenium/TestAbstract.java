@@ -2,9 +2,15 @@ package org.qecamp.zalenium;
 
 import java.net.MalformedURLException;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
 
 import org.openqa.selenium.By;
+import org.openqa.selenium.JavascriptExecutor;
+import org.openqa.selenium.WebDriver;
+import org.openqa.selenium.WebDriverException;
 import org.openqa.selenium.WebElement;
 import org.openqa.selenium.remote.RemoteWebDriver;
 import org.testng.ITestContext;
@@ -20,12 +26,47 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 public abstract class TestAbstract {
     protected RemoteWebDriver webDriver = null;
-    protected static final long WAIT_TIME = 1000L * 5;
+    private ITestContext testContext = null;
+    // default timeout of a wait, there is no implicit wait on the drivers
+    protected static final long WAIT_TIMEOUT = 1000L * 10;
+    // polling starts fast and backs off up to the max interval
+    private static final long POLL_INITIAL = 50L;
+    private static final long POLL_MAX = 1000L;
+    // network is idle when no new resource was loaded for this duration
+    private static final long NETWORK_QUIET_TIME = 500L;
+    // logical pages, see NavigationState
+    protected static final String DEVELOPERS_PAGE = "developers";
 
     @BeforeTest
     @BeforeClass
     public void setup(final ITestContext testContext) throws MalformedURLException {
-        webDriver = WebDriverFactory.getDriver(testContext);
+        this.testContext = testContext;
+        // per thread drivers are leased by the threads running the methods, not by the test runner
+        if (!WebDriverFactory.isDriverPerThread(testContext)) {
+            webDriver = WebDriverFactory.getDriver(testContext);
+        }
+    }
+
+    // the driver of the calling thread when the methods or classes run in parallel (see
+    // WebDriverFactory#isDriverPerThread). The methods of a class may then run on different sessions, a page needed
+    // by every method is loaded in a @BeforeMethod, navigate() skips it on a session already there
+    protected RemoteWebDriver getWebDriver() {
+        if (testContext != null && WebDriverFactory.isDriverPerThread(testContext)) {
+            return lease();
+        }
+        // the session died, the next methods run on its replacement
+        if (testContext != null && SessionHealth.isDead(webDriver)) {
+            webDriver = lease();
+        }
+        return webDriver;
+    }
+
+    private RemoteWebDriver lease() {
+        try {
+            return WebDriverFactory.getDriver(testContext);
+        } catch (MalformedURLException ex) {
+            throw new WebDriverException("Unable to lease a driver for:" + testContext.getName(), ex);
+        }
     }
 
     @AfterSuite
@@ -43,21 +84,134 @@ public abstract class TestAbstract {
         }
     }
 
+    // wait utils
+
+    // polls the condition until it returns non null (or true) value, returns null on timeout
+    public <T> T waitFor(String name, Function<WebDriver, T> condition, long timeout) {
+        long start = System.currentTimeMillis();
+        long deadline = start + timeout;
+        long interval = POLL_INITIAL;
+        RemoteWebDriver driver = getWebDriver();
+        try {
+            while (true) {
+                try {
+                    T value = condition.apply(driver);
+                    if (value != null && !Boolean.FALSE.equals(value)) {
+                        return value;
+                    }
+                } catch (WebDriverException ex) {
+                    // a dead session will not answer, fails now instead of at the timeout
+                    if (SessionHealth.isDead(driver)) {
+                        throw ex;
+                    }
+                    _logger.trace("Wait[{}], condition failed, retrying", name, ex);
+                }
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    _logger.debug("Wait[{}] timed out after {}ms", name, timeout);
+                    return null;
+                }
+                sleep(Math.min(interval, remaining));
+                interval = Math.min(interval * 3 / 2, POLL_MAX);
+            }
+        } finally {
+            TestMetrics.getWait(name).record(System.currentTimeMillis() - start);
+        }
+    }
+
+    public WebElement waitForElement(By identifier) {
+        return waitForElement(identifier, WAIT_TIMEOUT);
+    }
+
+    public WebElement waitForElement(By identifier, long timeout) {
+        return waitFor("elementPresent", driver -> {
+            List<WebElement> elements = driver.findElements(identifier);
+            return elements.isEmpty() ? null : elements.get(0);
+        }, timeout);
+    }
+
+    public boolean waitForUrlChange(String previousUrl, long timeout) {
+        return waitFor("urlChanged", driver -> !driver.getCurrentUrl().equals(previousUrl), timeout) != null;
+    }
+
+    public boolean waitForDocumentReady(long timeout) {
+        return waitFor("documentReady", driver -> "complete".equals(
+                ((JavascriptExecutor) driver).executeScript("return document.readyState;")), timeout) != null;
+    }
+
+    // idle when there are no active jQuery requests and no new resources for NETWORK_QUIET_TIME
+    public boolean waitForNetworkIdle(long timeout) {
+        final long[] state = { -1L, 0L }; // resource count, count stable since
+        return waitFor("networkIdle", driver -> {
+            Object result = ((JavascriptExecutor) driver).executeScript(
+                    "var active = window.jQuery ? window.jQuery.active : 0;"
+                            + "var resources = window.performance && performance.getEntriesByType"
+                            + " ? performance.getEntriesByType('resource').length : 0;"
+                            + "return active > 0 ? -1 : resources;");
+            if (!(result instanceof Number)) {
+                return true;
+            }
+            long resources = ((Number) result).longValue();
+            long now = System.currentTimeMillis();
+            if (resources < 0 || resources != state[0]) {
+                state[0] = resources;
+                state[1] = now;
+                return false;
+            }
+            return now - state[1] >= NETWORK_QUIET_TIME;
+        }, timeout) != null;
+    }
+
+    public void waitForPageLoad() {
+        long start = System.currentTimeMillis();
+        if (waitForDocumentReady(WAIT_TIMEOUT)) {
+            waitForNetworkIdle(Math.max(WAIT_TIMEOUT - (System.currentTimeMillis() - start), 0));
+        }
+    }
+
     // selenium utils
 
-    public void click(By identifier) {
-        List<WebElement> elements = webDriver.findElements(identifier);
-        if (!elements.isEmpty()) {
-            elements.get(0).click();
+    // returns false when the element was not found
+    public boolean click(By identifier) {
+        RemoteWebDriver driver = getWebDriver();
+        WebElement element = waitForElement(identifier);
+        if (element != null) {
+            element.click();
+            DomQuery.of(driver).invalidate();
+            NavigationState.of(driver).invalidate();
+            return true;
         }
+        return false;
+    }
+
+    // runs the navigation unless the session is already on the page, the navigation returns whether it went there
+    public void navigate(String page, BooleanSupplier navigation) {
+        NavigationState.of(getWebDriver()).navigate(page, navigation);
+    }
+
+    // without a remote call when the url is known
+    public String getCurrentUrl() {
+        return NavigationState.of(getWebDriver()).getCurrentUrl();
     }
 
     public String text(By identifier) {
-        List<WebElement> elements = webDriver.findElements(identifier);
-        if (!elements.isEmpty()) {
-            return elements.get(0).getText();
+        RemoteWebDriver driver = getWebDriver();
+        ElementSnapshot snapshot = DomQuery.of(driver).query(identifier);
+        if (snapshot.isPresent()) {
+            return snapshot.getText();
+        }
+        // not on the page yet
+        WebElement element = waitForElement(identifier);
+        if (element != null) {
+            DomQuery.of(driver).invalidate();
+            return element.getText();
         }
         return null;
     }
 
+    // text, attributes and visibility of many elements in one remote call
+    public Map<By, ElementSnapshot> query(By... identifiers) {
+        return DomQuery.of(getWebDriver()).query(identifiers);
+    }
+
 }
\ No newline at end of file
@@ -1,31 +1,61 @@
 package org.qecamp.zalenium;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
 
 import lombok.Getter;
 
-@Getter
+/**
+ * Result counters of a suite or a test, safe to update from parallel threads.
+ */
 public class TestCount {
-    private int success = 0;
-    private int failures = 0;
-    private int skipped = 0;
-    private long startTime = 0;
-    private long endTime = 0;
+    private final LongAdder success = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    // failed by the grid or a dead session, see SessionHealth
+    private final LongAdder infraFailures = new LongAdder();
+    private final LongAdder skipped = new LongAdder();
+    @Getter
+    private volatile long startTime = 0;
+    @Getter
+    private volatile long endTime = 0;
+    // durations of the test methods
+    @Getter
+    private final LatencyHistogram durations = new LatencyHistogram();
 
     public void incrementSuccess() {
-        success++;
+        success.increment();
     }
 
     public void incrementFailures() {
-        failures++;
+        failures.increment();
+    }
+
+    public void incrementInfraFailures() {
+        infraFailures.increment();
     }
 
     public void incrementSkipped() {
-        skipped++;
+        skipped.increment();
+    }
+
+    public long getSuccess() {
+        return success.sum();
+    }
+
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    public long getInfraFailures() {
+        return infraFailures.sum();
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
     }
 
-    public int getTotal() {
-        return success + failures + skipped;
+    public long getTotal() {
+        return getSuccess() + getFailures() + getInfraFailures() + getSkipped();
     }
 
     public void setStartTime(long startTime) {
@@ -36,7 +66,7 @@ public class TestCount {
         this.endTime = endTime;
     }
 
-    private String timeTaken(long duration) {
+    static String timeTaken(long duration) {
         long hours = 0;
         long minutes = 0;
         long seconds = 0;
@@ -56,13 +86,19 @@ public class TestCount {
 
     @Override
     public String toString() {
+        long success = getSuccess();
+        long failures = getFailures();
+        long infraFailures = getInfraFailures();
+        long skipped = getSkipped();
         StringBuilder builder = new StringBuilder();
         builder
-                .append("total:").append(success + failures + skipped)
+                .append("total:").append(success + failures + infraFailures + skipped)
                 .append(", failures:").append(failures)
+                .append(", infra_failures:").append(infraFailures)
                 .append(", skipped:").append(skipped)
                 .append(", success:").append(success)
-                .append(", time_taken:[").append(timeTaken(endTime - startTime)).append("]");
+                .append(", time_taken:[").append(timeTaken(endTime - startTime)).append("]")
+                .append(", method_time:[").append(durations).append("]");
         return builder.toString();
     }
 }
@@ -0,0 +1,296 @@
+package org.qecamp.zalenium;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.MDC;
+import org.testng.ITestResult;
+
+import ch.qos.logback.classic.Level;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.UnsynchronizedAppenderBase;
+
+/**
+ * Log of each test method, captured in memory and written only when the method fails. The listener puts the driver
+ * name of the test thread (see {@link WebDriverFactory#getDriverName}) in the MDC, the events of the thread go to a
+ * ring buffer of that name holding the last 'size' events. The logging thread formats the message of an event before
+ * storing it, the writer does not read the arguments of the caller, it only lays the event out. The log of a failed
+ * or retried method is written in the background to -DtestLogsDir (default: target/test-logs), the log of a passed
+ * method is dropped and only counted.
+ *
+ * <pre>
+ * &lt;appender name="TEST_LOGS" class="org.qecamp.zalenium.TestLogAppender"&gt;
+ *   &lt;size&gt;1000&lt;/size&gt;
+ *   &lt;pattern&gt;%date %level [%thread] [%logger] %msg%n&lt;/pattern&gt;
+ * &lt;/appender&gt;
+ * </pre>
+ */
+public class TestLogAppender extends UnsynchronizedAppenderBase<ILoggingEvent> {
+    // MDC key of the driver name of the thread
+    public static final String DRIVER_NAME = "driverName";
+
+    private static final LongAdder CAPTURED = new LongAdder();
+    private static final LongAdder OVERFLOWED = new LongAdder();
+    private static final LongAdder WRITTEN = new LongAdder();
+    private static final LongAdder WRITTEN_BYTES = new LongAdder();
+    private static final LongAdder DISCARDED = new LongAdder();
+    // warnings and errors of the passed methods, their log is not kept
+    private static final LongAdder DISCARDED_WARNINGS = new LongAdder();
+    private static final LatencyHistogram WRITE_TIME = new LatencyHistogram();
+
+    private static volatile TestLogAppender instance = null;
+    private static volatile ExecutorService writer = null;
+
+    private final ConcurrentHashMap<String, Ring> rings = new ConcurrentHashMap<String, Ring>();
+    private int size = 1000;
+    private String pattern = "%date %level [%thread] [%logger] %msg%n";
+    private PatternLayout layout;
+
+    // the last events of a driver name, written by the test thread of the name
+    private static class Ring {
+        private final ILoggingEvent[] events;
+        private int head = 0;
+        private int count = 0;
+        private long overflowed = 0;
+
+        Ring(int size) {
+            events = new ILoggingEvent[size];
+        }
+
+        synchronized void add(ILoggingEvent event) {
+            events[(head + count) % events.length] = event;
+            if (count < events.length) {
+                count++;
+            } else {
+                head = (head + 1) % events.length;
+                overflowed++;
+                OVERFLOWED.increment();
+            }
+        }
+
+        // takes the events and empties the ring
+        synchronized Snapshot drain() {
+            ILoggingEvent[] taken = new ILoggingEvent[count];
+            for (int i = 0; i < count; i++) {
+                taken[i] = events[(head + i) % events.length];
+                events[(head + i) % events.length] = null;
+            }
+            Snapshot snapshot = new Snapshot(taken, overflowed);
+            head = 0;
+            count = 0;
+            overflowed = 0;
+            return snapshot;
+        }
+    }
+
+    private static class Snapshot {
+        private final ILoggingEvent[] events;
+        private final long overflowed;
+
+        Snapshot(ILoggingEvent[] events, long overflowed) {
+            this.events = events;
+            this.overflowed = overflowed;
+        }
+    }
+
+    public void setSize(int size) {
+        this.size = size;
+    }
+
+    public void setPattern(String pattern) {
+        this.pattern = pattern;
+    }
+
+    @Override
+    public void start() {
+        if (size <= 0) {
+            addError("size must be greater than 0, appender:" + getName());
+            return;
+        }
+        layout = new PatternLayout();
+        layout.setContext(getContext());
+        layout.setPattern(pattern);
+        layout.start();
+        synchronized (TestLogAppender.class) {
+            if (writer == null) {
+                writer = Executors.newSingleThreadExecutor(runnable -> {
+                    Thread thread = new Thread(runnable, "test-logs-io");
+                    thread.setDaemon(true);
+                    return thread;
+                });
+            }
+        }
+        instance = this;
+        super.start();
+    }
+
+    @Override
+    public void stop() {
+        if (instance == this) {
+            instance = null;
+        }
+        super.stop();
+        close(10, TimeUnit.SECONDS);
+    }
+
+    @Override
+    protected void append(ILoggingEvent event) {
+        // read on the logging thread, the map is not copied
+        String driverName = event.getMDCPropertyMap().get(DRIVER_NAME);
+        if (driverName == null) {
+            return;
+        }
+        // message, thread name and MDC taken now like AsyncAppender does, the writer runs on another thread and the
+        // arguments of the caller may change meanwhile
+        event.prepareForDeferredProcessing();
+        Ring ring = rings.get(driverName);
+        if (ring == null) {
+            ring = rings.computeIfAbsent(driverName, k -> new Ring(size));
+        }
+        ring.add(event);
+        CAPTURED.increment();
+    }
+
+    // the events of the calling thread go to the log of this driver name, until the next begin or end
+    public static void begin(String driverName) {
+        MDC.put(DRIVER_NAME, driverName);
+    }
+
+    // the calling thread is done with the driver name, its events are dropped
+    public static void end(String driverName) {
+        if (driverName.equals(MDC.get(DRIVER_NAME))) {
+            MDC.remove(DRIVER_NAME);
+        }
+        TestLogAppender appender = instance;
+        if (appender != null) {
+            appender.rings.remove(driverName);
+        }
+    }
+
+    // passed method, its log is dropped
+    public static void discard(String driverName) {
+        Snapshot snapshot = drain(driverName);
+        if (snapshot == null) {
+            return;
+        }
+        DISCARDED.increment();
+        for (ILoggingEvent event : snapshot.events) {
+            if (event.getLevel().isGreaterOrEqual(Level.WARN)) {
+                DISCARDED_WARNINGS.increment();
+            }
+        }
+    }
+
+    // failed method, its log is written in the background. Returns the file or null when nothing was captured
+    public static File write(String driverName, ITestResult result, String outcome) {
+        final TestLogAppender appender = instance;
+        final Snapshot snapshot = drain(driverName);
+        if (appender == null || snapshot == null || snapshot.events.length == 0) {
+            return null;
+        }
+        final File file = getFile(result, outcome);
+        final String header = "# " + result.getTestClass().getRealClass().getName() + "." + result.getName() + ", "
+                + outcome + ", driver:[" + driverName + "], events:" + snapshot.events.length + ", overflowed:"
+                + snapshot.overflowed + "\n";
+        final Throwable throwable = result.getThrowable();
+        ExecutorService executor = writer;
+        if (executor != null) {
+            executor.execute(() -> appender.write(file, header, snapshot, throwable));
+        } else {
+            // closed, end of the suite
+            appender.write(file, header, snapshot, throwable);
+        }
+        return file;
+    }
+
+    private static Snapshot drain(String driverName) {
+        TestLogAppender appender = instance;
+        if (appender == null) {
+            return null;
+        }
+        Ring ring = appender.rings.get(driverName);
+        return ring != null ? ring.drain() : null;
+    }
+
+    private static File getFile(ITestResult result, String outcome) {
+        String test = result.getTestContext().getName().replaceAll("[^A-Za-z0-9._-]+", "_");
+        String method = result.getTestClass().getRealClass().getSimpleName() + "." + result.getName();
+        return new File(new File(System.getProperty("testLogsDir", "target/test-logs"), test),
+                method + "-" + outcome + "-" + System.currentTimeMillis() + ".log");
+    }
+
+    private void write(File file, String header, Snapshot snapshot, Throwable throwable) {
+        long start = System.currentTimeMillis();
+        StringBuilder builder = new StringBuilder(header.length() + snapshot.events.length * 128);
+        builder.append(header);
+        for (ILoggingEvent event : snapshot.events) {
+            builder.append(layout.doLayout(event));
+        }
+        if (throwable != null) {
+            StringWriter stackTrace = new StringWriter();
+            throwable.printStackTrace(new PrintWriter(stackTrace));
+            builder.append("# ").append(stackTrace);
+        }
+        byte[] data = builder.toString().getBytes(StandardCharsets.UTF_8);
+        try {
+            Files.createDirectories(file.getParentFile().toPath());
+            try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(data);
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            }
+            WRITTEN.increment();
+            WRITTEN_BYTES.add(data.length);
+        } catch (IOException ex) {
+            // not logged, the event would come back to this appender
+            addError("Unable to write the test log:[" + file.getAbsolutePath() + "]", ex);
+        }
+        WRITE_TIME.record(System.currentTimeMillis() - start);
+    }
+
+    // waits for the queued writes
+    public static void close(long timeout, TimeUnit unit) {
+        ExecutorService executor;
+        synchronized (TestLogAppender.class) {
+            executor = writer;
+            writer = null;
+        }
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            executor.awaitTermination(timeout, unit);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    public static String stats() {
+        StringBuilder builder = new StringBuilder();
+        builder
+                .append("captured:").append(CAPTURED.sum())
+                .append(", overflowed:").append(OVERFLOWED.sum())
+                .append(", written:").append(WRITTEN.sum())
+                .append(", written_bytes:").append(WRITTEN_BYTES.sum())
+                .append(", discarded:").append(DISCARDED.sum())
+                .append(", discarded_warnings:").append(DISCARDED_WARNINGS.sum())
+                .append(", write_time:[").append(WRITE_TIME).append("]");
+        return builder.toString();
+    }
+}
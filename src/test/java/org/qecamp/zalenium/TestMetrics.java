@@ -0,0 +1,84 @@
+package org.qecamp.zalenium;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.testng.ITestResult;
+
+import lombok.AccessLevel;
+import lombok.AllArgsConstructor;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+
+/**
+ * Registry of the suite and test results, of the waits and of the methods running on each thread, the summary report
+ * is computed from the results file (see {@link ResultJournal}). Lookups of existing entries are lock free and
+ * recording a result does not allocate.
+ */
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class TestMetrics {
+    private static final TestCount SUITE = new TestCount();
+    private static final ConcurrentHashMap<String, TestCount> TESTS = new ConcurrentHashMap<String, TestCount>();
+    private static final ConcurrentHashMap<String, LatencyHistogram> WAITS = new ConcurrentHashMap<String, LatencyHistogram>();
+    // thread name -> method running on it
+    private static final ConcurrentHashMap<String, Running> RUNNING = new ConcurrentHashMap<String, Running>();
+
+    @Getter
+    @AllArgsConstructor
+    public static class Running {
+        private final String test;
+        private final String method;
+        private final long startTime;
+    }
+
+    public static TestCount getSuite() {
+        return SUITE;
+    }
+
+    public static TestCount getTest(String testName) {
+        TestCount testCount = TESTS.get(testName);
+        if (testCount == null) {
+            testCount = TESTS.computeIfAbsent(testName, k -> new TestCount());
+        }
+        return testCount;
+    }
+
+    public static LatencyHistogram getWait(String name) {
+        LatencyHistogram histogram = WAITS.get(name);
+        if (histogram == null) {
+            histogram = WAITS.computeIfAbsent(name, k -> new LatencyHistogram());
+        }
+        return histogram;
+    }
+
+    public static Map<String, TestCount> getTests() {
+        return Collections.unmodifiableMap(TESTS);
+    }
+
+    public static Map<String, LatencyHistogram> getWaits() {
+        return Collections.unmodifiableMap(WAITS);
+    }
+
+    public static Map<String, Running> getRunning() {
+        return Collections.unmodifiableMap(RUNNING);
+    }
+
+    // the method starts on the calling thread
+    public static void started(ITestResult result) {
+        RUNNING.put(Thread.currentThread().getName(), new Running(result.getTestContext().getName(),
+                result.getTestClass().getRealClass().getName() + "." + result.getName(), System.currentTimeMillis()));
+    }
+
+    // the method of the calling thread is done
+    public static void finished() {
+        RUNNING.remove(Thread.currentThread().getName());
+    }
+
+    // records the duration of the test method on suite and test level
+    public static void recordDuration(ITestResult result) {
+        long duration = result.getEndMillis() - result.getStartMillis();
+        SUITE.getDurations().record(duration);
+        getTest(result.getTestContext().getName()).getDurations().record(duration);
+    }
+}
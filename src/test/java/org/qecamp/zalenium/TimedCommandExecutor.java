@@ -0,0 +1,79 @@
+package org.qecamp.zalenium;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.openqa.selenium.logging.LocalLogs;
+import org.openqa.selenium.logging.NeedsLocalLogs;
+import org.openqa.selenium.remote.Command;
+import org.openqa.selenium.remote.CommandExecutor;
+import org.openqa.selenium.remote.DriverCommand;
+import org.openqa.selenium.remote.Response;
+import org.openqa.selenium.remote.UnreachableBrowserException;
+
+/**
+ * Records latency, payload size and errors of every command sent by the driver, see {@link CommandMetrics}, and the
+ * activity of the session for {@link SessionHealth}. A navigation command drops the {@link NavigationState} of the
+ * session.
+ */
+public class TimedCommandExecutor implements CommandExecutor, NeedsLocalLogs {
+    // commands that may load another page, see NavigationState
+    private static final Set<String> NAVIGATIONS = new HashSet<String>(Arrays.asList(DriverCommand.GET,
+            DriverCommand.GO_BACK, DriverCommand.GO_FORWARD, DriverCommand.REFRESH, DriverCommand.CLICK_ELEMENT,
+            DriverCommand.SUBMIT_ELEMENT));
+
+    private final CommandExecutor executor;
+
+    public TimedCommandExecutor(CommandExecutor executor) {
+        this.executor = executor;
+    }
+
+    @Override
+    public Response execute(Command command) throws IOException {
+        String commandSessionId = command.getSessionId() != null ? command.getSessionId().toString() : null;
+        if (commandSessionId != null) {
+            // fail fast on a dead session instead of waiting for the command timeout, it can still be quit
+            if (SessionHealth.isDead(commandSessionId) && !DriverCommand.QUIT.equals(command.getName())) {
+                throw new UnreachableBrowserException("Session is dead, see the session health:" + commandSessionId);
+            }
+            SessionHealth.commandStarted(commandSessionId);
+            if (NAVIGATIONS.contains(command.getName())) {
+                NavigationState.invalidate(commandSessionId);
+            }
+        }
+        long start = System.nanoTime();
+        Response response = null;
+        boolean error = true;
+        try {
+            response = executor.execute(command);
+            error = response != null && response.getStatus() != null && response.getStatus() != 0;
+            return response;
+        } catch (SocketTimeoutException ex) {
+            // no answer within the command timeout, the session is hung
+            if (commandSessionId != null && !DriverCommand.QUIT.equals(command.getName())) {
+                SessionHealth.commandTimedOut(commandSessionId);
+            }
+            throw ex;
+        } finally {
+            if (commandSessionId != null) {
+                SessionHealth.commandFinished(commandSessionId, response,
+                        DriverCommand.QUIT.equals(command.getName()));
+            }
+            long duration = (System.nanoTime() - start) / 1000000L;
+            String sessionId = commandSessionId != null ? commandSessionId
+                    : response != null ? response.getSessionId() : null;
+            CommandMetrics.record(command.getName(), sessionId, duration, CommandMetrics.sizeOf(command.getParameters()),
+                    response != null ? CommandMetrics.sizeOf(response.getValue()) : 0, error);
+        }
+    }
+
+    @Override
+    public void setLocalLogs(LocalLogs logs) {
+        if (executor instanceof NeedsLocalLogs) {
+            ((NeedsLocalLogs) executor).setLocalLogs(logs);
+        }
+    }
+}
@@ -3,20 +3,25 @@ package org.qecamp.zalenium;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import org.openqa.selenium.MutableCapabilities;
-import org.openqa.selenium.chrome.ChromeOptions;
-import org.openqa.selenium.edge.EdgeOptions;
-import org.openqa.selenium.firefox.FirefoxOptions;
-import org.openqa.selenium.ie.InternetExplorerOptions;
-import org.openqa.selenium.remote.BrowserType;
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.HttpCommandExecutor;
 import org.openqa.selenium.remote.RemoteWebDriver;
-import org.openqa.selenium.safari.SafariOptions;
+import org.testng.ISuite;
+import org.testng.ITestClass;
 import org.testng.ITestContext;
+import org.testng.xml.XmlSuite;
+import org.testng.xml.XmlTest;
 
 import lombok.AccessLevel;
 import lombok.NoArgsConstructor;
@@ -28,35 +33,287 @@ import lombok.extern.slf4j.Slf4j;
 @Slf4j
 @NoArgsConstructor(access = AccessLevel.PRIVATE)
 public class WebDriverFactory {
+    private static final String ZALENIUM_MESSAGE = "zaleniumMessage";
     private static AtomicBoolean tearDown = new AtomicBoolean(false);
     private static ConcurrentHashMap<String, RemoteWebDriver> driversMap = new ConcurrentHashMap<String, RemoteWebDriver>();
+    private static ConcurrentHashMap<String, Object> driverLocks = new ConcurrentHashMap<String, Object>();
+    // drivers shared by the entire suite, they are held until the teardown
+    private static Set<String> suiteDrivers = ConcurrentHashMap.newKeySet();
+
+    static {
+        // release the grid slots when the build is aborted
+        Runtime.getRuntime().addShutdownHook(new Thread(WebDriverFactory::tearDownAll, "webdriver-teardown"));
+    }
+
+    // one pool per browser matrix entry, a session can only be reused for the same browser
+    private static final ConcurrentHashMap<String, WebDriverPool> POOLS = new ConcurrentHashMap<String, WebDriverPool>();
+    // matrix entry of each driver key
+    private static ConcurrentHashMap<String, String> driverEntries = new ConcurrentHashMap<String, String>();
+    // sized concurrency of the matrix entries, a permit per session a fanned out test may hold
+    private static ConcurrentHashMap<String, Semaphore> entryPermits = new ConcurrentHashMap<String, Semaphore>();
+    private static ConcurrentHashMap<String, Permits> permittedTests = new ConcurrentHashMap<String, Permits>();
+
+    private static class Permits {
+        private final String entryName;
+        private final int count;
+
+        Permits(String entryName, int count) {
+            this.entryName = entryName;
+            this.count = count;
+        }
+    }
+
+    private static WebDriverPool getPool(final BrowserMatrix.Entry entry) {
+        WebDriverPool pool = POOLS.get(entry.getName());
+        if (pool == null) {
+            pool = POOLS.computeIfAbsent(entry.getName(), k -> new WebDriverPool(k, new WebDriverPool.SessionFactory() {
+                @Override
+                public RemoteWebDriver create(String name) throws MalformedURLException {
+                    return initialize(name, entry);
+                }
+
+                @Override
+                public void reset(RemoteWebDriver webDriver) {
+                    // deliver the pending zalenium status of the previous test
+                    ZaleniumChannel.flush(webDriver);
+                    webDriver.manage().deleteAllCookies();
+                    webDriver.get(getBaseUrl());
+                    DomQuery.invalidate(webDriver);
+                    NavigationState.of(webDriver).loaded(NavigationState.HOME);
+                    _logger.debug("Selenium webdriver reset. SessionId:[{}]", webDriver.getSessionId());
+                }
+            }));
+        }
+        return pool;
+    }
+
+    // start sessions in the background, one per parallel thread of each matrix entry
+    public static void warmUp(final ISuite suite) {
+        XmlSuite xmlSuite = suite.getXmlSuite();
+        // do not hold more slots than the grid has free
+        int free = GridCapacity.getFreeSlots();
+        for (BrowserMatrix.Entry entry : BrowserMatrix.getEntries()) {
+            int tests = 0;
+            // tests running their methods or classes in parallel hold a session per thread, whatever the suite mode
+            int sessionsPerTest = 1;
+            for (XmlTest test : xmlSuite.getTests()) {
+                if (!BrowserMatrix.isFanOut() || entry.getName().equals(test.getParameter(BrowserMatrix.PARAMETER))) {
+                    tests++;
+                    if (isDriverPerThread(test)) {
+                        sessionsPerTest = Math.max(sessionsPerTest, test.getThreadCount());
+                    }
+                }
+            }
+            // the tests run one after the other unless the suite runs them in parallel
+            int parallelTests = Math.min(1, tests);
+            if (isDriverPerTest(xmlSuite)) {
+                int threads = BrowserMatrix.isFanOut() ? entry.getThreads() : xmlSuite.getThreadCount();
+                parallelTests = Math.min(threads, tests);
+            }
+            int size = parallelTests * sessionsPerTest;
+            // the tests of a fanned out entry hold at most its threads, see acquirePermits
+            if (BrowserMatrix.isFanOut()) {
+                size = Math.min(size, entry.getThreads());
+            }
+            if (free >= 0) {
+                size = Math.min(size, free);
+                free -= size;
+            }
+            if (size > 0) {
+                getPool(entry).warmUp(suite.getName(), size);
+            }
+        }
+    }
 
     public static RemoteWebDriver getDriver(final ITestContext testContext) throws MalformedURLException {
-        return getDriver(getDriverName(testContext));
+        String driverName = getDriverName(testContext);
+        if (!isDriverPerTest(testContext) && !isDriverPerThread(testContext)) {
+            suiteDrivers.add(driverName);
+        }
+        String entryName = BrowserMatrix.getEntryName(testContext);
+        if (entryName != null) {
+            driverEntries.putIfAbsent(driverName, entryName);
+        }
+        if (!suiteDrivers.contains(driverName)) {
+            acquirePermits(testContext);
+        }
+        return getDriver(driverName);
     }
 
     public static RemoteWebDriver getDriver(String key) throws MalformedURLException {
-        if (driversMap.get(key) == null) {
-            _logger.debug("Initializing drivers with the key:{{}}", key);
-            driversMap.put(key, initialize(key));
+        RemoteWebDriver webDriver = driversMap.get(key);
+        if (webDriver != null && SessionHealth.isDead(webDriver)) {
+            // the key gets a new session, see SessionHealth
+            if (driversMap.remove(key, webDriver)) {
+                _logger.warn("Replacing the dead session of the key:{{}}, SessionId:[{}]", key,
+                        webDriver.getSessionId());
+                SessionRegistry.quitLater(webDriver);
+            }
+            webDriver = driversMap.get(key);
+        }
+        if (webDriver == null) {
+            // lock per key, avoids duplicate sessions when two threads ask for the same key
+            synchronized (driverLocks.computeIfAbsent(key, k -> new Object())) {
+                webDriver = driversMap.get(key);
+                if (webDriver == null) {
+                    BrowserMatrix.Entry entry = BrowserMatrix.getEntry(driverEntries.get(key));
+                    _logger.debug("Leasing driver with the key:{{}}, browser:{{}}", key, entry.getName());
+                    long start = System.currentTimeMillis();
+                    try {
+                        webDriver = getPool(entry).lease(key);
+                    } finally {
+                        // waiting for a warm session or a grid slot
+                        TestMetrics.getWait("sessionLease").record(System.currentTimeMillis() - start);
+                    }
+                    // warm sessions carry the suite name on the dashboard, the video log gets the key
+                    SessionRegistry.leased(webDriver, key);
+                    ZaleniumChannel.send(webDriver, ZALENIUM_MESSAGE, "[L] Leased by: " + key);
+                    driversMap.put(key, webDriver);
+                }
+            }
+        }
+        return webDriver;
+    }
+
+    // a fanned out test takes from its matrix entry the sessions it may hold, all at once: the threads of a test
+    // never wait for each other. The test waits, without timeout, until the entry has them free. The BrowserMatrix
+    // listener orders the tests so that they seldom wait
+    private static void acquirePermits(ITestContext testContext) {
+        if (!BrowserMatrix.isFanOut()) {
+            return;
+        }
+        String testKey = getTestKey(testContext);
+        if (permittedTests.containsKey(testKey)) {
+            return;
+        }
+        synchronized (driverLocks.computeIfAbsent(testKey, k -> new Object())) {
+            if (permittedTests.containsKey(testKey)) {
+                return;
+            }
+            final BrowserMatrix.Entry entry = BrowserMatrix.getEntry(BrowserMatrix.getEntryName(testContext));
+            XmlTest xmlTest = testContext.getCurrentXmlTest();
+            int sessions = isDriverPerThread(xmlTest) ? Math.min(xmlTest.getThreadCount(), entry.getThreads()) : 1;
+            Semaphore permits = entryPermits.get(entry.getName());
+            if (permits == null) {
+                permits = entryPermits.computeIfAbsent(entry.getName(), k -> new Semaphore(entry.getThreads(), true));
+            }
+            long start = System.currentTimeMillis();
+            try {
+                permits.acquire(sessions);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new WebDriverException("Interrupted while waiting for the browser:" + entry.getName(), ex);
+            } finally {
+                // waiting for the threads of the browser
+                TestMetrics.getWait("browserThreads").record(System.currentTimeMillis() - start);
+            }
+            permittedTests.put(testKey, new Permits(entry.getName(), sessions));
+        }
+    }
+
+    // the test finished, its sessions are free for the next test of the entry
+    public static void releasePermits(final ITestContext testContext) {
+        Permits permits = permittedTests.remove(getTestKey(testContext));
+        if (permits != null) {
+            entryPermits.get(permits.entryName).release(permits.count);
+        }
+    }
+
+    // the test, whatever the thread
+    private static String getTestKey(final ITestContext testContext) {
+        return getDriverName(testContext.getSuite().getName(), testContext.getSuite().getXmlSuite(),
+                testContext.getCurrentXmlTest(), false);
+    }
+
+    // a dead session leaves the pool at once, a leased one is replaced when its key asks for it again
+    static void evict(RemoteWebDriver webDriver) {
+        for (WebDriverPool pool : POOLS.values()) {
+            if (pool.evict(webDriver)) {
+                return;
+            }
         }
-        return driversMap.get(key);
     }
 
-    // this method will be called after suite
+    // reset the driver and return it to the pool
+    public static void releaseDriver(String driverName) {
+        RemoteWebDriver webDriver = driversMap.remove(driverName);
+        if (webDriver != null) {
+            getPool(BrowserMatrix.getEntry(driverEntries.get(driverName))).release(webDriver);
+        }
+    }
+
+    // this method will be called after suite and by the shutdown hook, quits all the sessions concurrently,
+    // each session has -DquitTimeout seconds (default: 30) to close
     public static void tearDownAll() {
-        if (!tearDown.get()) {
-            for (String key : driversMap.keySet()) {
-                RemoteWebDriver webDriver = driversMap.get(key);
-                if (webDriver != null) {
-                    webDriver.quit();
-                }
+        if (!tearDown.compareAndSet(false, true)) {
+            return;
+        }
+        SessionHealth.stop();
+        long timeout = Long.getLong("quitTimeout", 30);
+        List<RemoteWebDriver> webDrivers = new ArrayList<RemoteWebDriver>();
+        for (Map.Entry<String, RemoteWebDriver> entry : driversMap.entrySet()) {
+            // per test drivers are released when the test finishes
+            if (!suiteDrivers.contains(entry.getKey())) {
+                SessionRegistry.leaked(entry.getValue());
+            }
+            webDrivers.add(entry.getValue());
+        }
+        driversMap.clear();
+        for (WebDriverPool pool : POOLS.values()) {
+            webDrivers.addAll(pool.close(timeout, TimeUnit.SECONDS));
+        }
+        // live sessions held by nobody
+        for (RemoteWebDriver webDriver : SessionRegistry.getLive()) {
+            if (!containsSession(webDrivers, webDriver)) {
+                SessionRegistry.leaked(webDriver);
+                webDrivers.add(webDriver);
             }
         }
+        _logger.debug("Quitting {} session(s)", webDrivers.size());
+        for (RemoteWebDriver webDriver : SessionRegistry.quitAll(webDrivers, timeout, TimeUnit.SECONDS)) {
+            _logger.warn("Session did not close within {}s:[{}]", timeout, SessionRegistry.describe(webDriver));
+        }
     }
 
+    private static boolean containsSession(List<RemoteWebDriver> webDrivers, RemoteWebDriver webDriver) {
+        for (RemoteWebDriver item : webDrivers) {
+            if (item == webDriver) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // quits the driver, the grid slot is released immediately
     public static void removeDriver(String driverName) {
-        driversMap.remove(driverName);
+        RemoteWebDriver webDriver = driversMap.remove(driverName);
+        if (webDriver != null && SessionHealth.isDead(webDriver)) {
+            SessionRegistry.quitLater(webDriver);
+        } else if (webDriver != null) {
+            SessionRegistry.quit(webDriver);
+        }
+    }
+
+    // leased driver of the key, null when the key holds no driver
+    public static RemoteWebDriver findDriver(String driverName) {
+        return driversMap.get(driverName);
+    }
+
+    // drivers leased by the threads of a test running its methods or classes in parallel
+    public static Map<String, RemoteWebDriver> getThreadDrivers(final ITestContext testContext) {
+        String prefix = getTestKey(testContext) + "@";
+        Map<String, RemoteWebDriver> drivers = new TreeMap<String, RemoteWebDriver>();
+        for (Map.Entry<String, RemoteWebDriver> entry : driversMap.entrySet()) {
+            if (entry.getKey().startsWith(prefix)) {
+                drivers.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return drivers;
+    }
+
+    // drivers held by the tests
+    public static int getDriverCount() {
+        return driversMap.size();
     }
 
     public static List<String> getKeysAllDriver() {
@@ -68,96 +325,97 @@ public class WebDriverFactory {
     }
 
     public static String getDriverName(final ITestContext testContext) {
-        String suiteName = testContext.getSuite().getName();
-        boolean isParallel = testContext.getSuite().getXmlSuite().getParallel().isParallel();
-        int threadCount = testContext.getSuite().getXmlSuite().getThreadCount();
-        if (threadCount > 1 && testContext.getSuite().getXmlSuite().getParallel().toString().equalsIgnoreCase("tests")) {
-            isParallel = true;
-        }
-        String testName = testContext.getName();
-        // if we have thread count more than 1(Parallel), create driver for each test,
-        // otherwise single drivers for entire suite
-        if (isParallel && threadCount > 1) {
-            return suiteName + "[" + testName + "]";
+        return getDriverName(testContext.getSuite().getName(), testContext.getSuite().getXmlSuite(),
+                testContext.getCurrentXmlTest(), true);
+    }
+
+    // driver of the thread running the test class
+    public static String getDriverName(final ITestClass testClass) {
+        XmlTest xmlTest = testClass.getXmlTest();
+        return getDriverName(xmlTest.getSuite().getName(), xmlTest.getSuite(), xmlTest, true);
+    }
+
+    private static String getDriverName(String suiteName, XmlSuite xmlSuite, XmlTest xmlTest, boolean thread) {
+        // drivers of a matrix entry are prefixed with the entry name
+        String entryName = xmlTest.getParameter(BrowserMatrix.PARAMETER);
+        String namespace = entryName != null ? entryName + ":" : "";
+        // a driver per thread when the methods or classes of the test run in parallel, a driver per test when
+        // the tests run in parallel, otherwise single drivers for entire suite
+        if (isDriverPerThread(xmlTest)) {
+            String name = namespace + suiteName + "[" + xmlTest.getName() + "]";
+            return thread ? name + "@" + Thread.currentThread().getName() : name;
+        } else if (isDriverPerTest(xmlSuite)) {
+            return namespace + suiteName + "[" + xmlTest.getName() + "]";
         } else {
-            return suiteName;
+            return namespace + suiteName;
         }
     }
 
-    private static RemoteWebDriver initialize(String suiteName) throws MalformedURLException {
-        String baseUrl = System.getProperty("baseUrl", "https://redhat.com");
+    public static boolean isDriverPerTest(final ITestContext testContext) {
+        return isDriverPerTest(testContext.getSuite().getXmlSuite());
+    }
+
+    public static boolean isDriverPerTest(XmlSuite xmlSuite) {
+        boolean isParallel = xmlSuite.getParallel().isParallel();
+        int threadCount = xmlSuite.getThreadCount();
+        if (threadCount > 1 && xmlSuite.getParallel().toString().equalsIgnoreCase("tests")) {
+            isParallel = true;
+        }
+        return isParallel && threadCount > 1;
+    }
 
-        String remoteDriver = System.getProperty("seleniumGrid", "http://localhost:4444/wd/hub");
+    public static boolean isDriverPerThread(final ITestContext testContext) {
+        return isDriverPerThread(testContext.getCurrentXmlTest());
+    }
+
+    // parallel methods, classes or instances of the test, each thread leases its own driver
+    public static boolean isDriverPerThread(XmlTest xmlTest) {
+        XmlSuite.ParallelMode parallel = xmlTest.getParallel();
+        return parallel != null && parallel.isParallel() && parallel != XmlSuite.ParallelMode.TESTS
+                && xmlTest.getThreadCount() > 1;
+    }
+
+    // a class runs on a single thread, its driver is released when the class finishes
+    public static boolean isDriverPerClass(XmlTest xmlTest) {
+        return isDriverPerThread(xmlTest) && (xmlTest.getParallel() == XmlSuite.ParallelMode.CLASSES
+                || xmlTest.getParallel() == XmlSuite.ParallelMode.INSTANCES);
+    }
+
+    private static String getBaseUrl() {
+        return System.getProperty("baseUrl", "https://redhat.com");
+    }
+
+    private static RemoteWebDriver initialize(String suiteName, BrowserMatrix.Entry entry)
+            throws MalformedURLException {
+        String baseUrl = getBaseUrl();
 
         _logger.debug("baseUrl:[{}]", baseUrl);
-        _logger.debug("Selenium grid:[{}]", remoteDriver);
-
-        // load UI driver
-        MutableCapabilities caps = null;
-        String browser = System.getProperty("browser", "chrome");
-        String platform = System.getProperty("platform");
-        String version = null;
-
-        switch (browser) {
-            case "chrome":
-                caps = new ChromeOptions();
-                browser = BrowserType.CHROME;
-                if (platform == null) {
-                    platform = "Linux";
-                }
-                break;
-            case "firefox":
-                caps = new FirefoxOptions();
-                browser = BrowserType.FIREFOX;
-                if (platform == null) {
-                    platform = "Linux";
-                }
-                break;
-            case "ie":
-                caps = new InternetExplorerOptions();
-                browser = BrowserType.IE;
-                platform = "Windows 10";
-                version = "11.103";
-                break;
-            case "edge":
-                caps = new EdgeOptions();
-                browser = BrowserType.EDGE;
-                platform = "Windows 10";
-                version = "17.17134";
-                break;
-            case "safari":
-                caps = new SafariOptions();
-                browser = BrowserType.SAFARI;
-                platform = "macOS 10.13";
-                version = "11.1";
-                break;
-        }
-
-        caps.setCapability("platform", platform);
-        if (version != null) {
-            caps.setCapability("version", version);
-        }
-
-        // saucelabs configurations
-        //caps.setCapability("platform", "Windows 7");
-        caps.setCapability("name", suiteName);
-        //caps.setCapability("tunnelIdentifier", "zalenium");
 
+        // capabilities of the matrix entry are built once, only the name is per session
+        MutableCapabilities caps = new MutableCapabilities(entry.toCapabilities());
+        caps.setCapability("name", suiteName);
         caps.setCapability("zal:name", suiteName);
-        caps.setCapability("zal:tz", "Asia/Kolkata");
-        caps.setCapability("zal:screenResolution", "1920x1080");
-        caps.setCapability("zal:idleTimeout", "60");
-        caps.setCapability("zal:recordVideo", "true");
-        caps.setCapability("zal:build", "1.0.0-SNAPSHOT");
 
-        _logger.debug("{}", caps.toString());
+        _logger.debug("{}", caps);
 
-        RemoteWebDriver webDriver = new RemoteWebDriver(new URL(remoteDriver), caps);
+        long start = System.currentTimeMillis();
+        // least loaded hub, see HubRouter
+        RemoteWebDriver webDriver = HubRouter.startSession(hub -> {
+            _logger.debug("Selenium grid:[{}]", hub.getUrl());
+            return new RemoteWebDriver(new TimedCommandExecutor(new HttpCommandExecutor(Collections.emptyMap(),
+                    new URL(hub.getUrl()), SharedHttpClientFactory.getInstance())), caps);
+        });
+        SessionRegistry.register(webDriver, suiteName);
+        RecordingPolicy.started(webDriver);
 
-        // launch the application and maximize the screen
-        webDriver.manage().timeouts().implicitlyWait(10, TimeUnit.SECONDS);
+        // launch the application, the window is sized by the capabilities when the browser supports it
+        // no implicit wait, tests wait on conditions with their own timeout (see TestAbstract.waitFor)
         webDriver.get(baseUrl);
-        webDriver.manage().window().maximize();
+        NavigationState.of(webDriver).loaded(NavigationState.HOME);
+        if (!entry.isWindowSized()) {
+            webDriver.manage().window().maximize();
+        }
+        CommandMetrics.getSessionStartup().record(System.currentTimeMillis() - start);
         _logger.debug("Selenium webdriver created. SessionId:[{}]", webDriver.getSessionId());
 
         return webDriver;
@@ -0,0 +1,202 @@
+package org.qecamp.zalenium;
+
+import java.net.MalformedURLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.openqa.selenium.WebDriverException;
+import org.openqa.selenium.remote.RemoteWebDriver;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Pool of selenium sessions. Sessions are started in the background and leased by the tests, once the test is done
+ * the session is reset and returned to the pool instead of quit. New sessions are started only when the grid has a
+ * free slot (see {@link GridCapacity}), the hub queue is not used.
+ */
+@Slf4j
+class WebDriverPool {
+
+    interface SessionFactory {
+        RemoteWebDriver create(String name) throws MalformedURLException;
+
+        void reset(RemoteWebDriver webDriver);
+    }
+
+    private final SessionFactory factory;
+    // name of the sessions started for the pool, the suite once warmed up
+    private volatile String name;
+    // warm sessions, ready to lease
+    private final LinkedBlockingDeque<RemoteWebDriver> idle = new LinkedBlockingDeque<RemoteWebDriver>();
+    // sessions still starting or resetting, they will be added to idle
+    private final AtomicInteger pending = new AtomicInteger(0);
+    private final ExecutorService executor;
+    private volatile boolean closed = false;
+
+    WebDriverPool(String name, SessionFactory factory) {
+        this.name = name;
+        this.factory = factory;
+        final AtomicInteger threadNumber = new AtomicInteger(1);
+        this.executor = Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "webdriver-pool-" + threadNumber.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    // starts sessions in the background until the pool holds 'size' sessions
+    void warmUp(final String name, int size) {
+        this.name = name;
+        int missing = size - idle.size() - pending.get();
+        _logger.debug("Warming up {} session(s) for:{{}}", Math.max(missing, 0), name);
+        for (int index = 0; index < missing; index++) {
+            startInBackground(name);
+        }
+    }
+
+    private void startInBackground(final String name) {
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                GridCapacity.acquire();
+                RemoteWebDriver webDriver = create(name);
+                if (webDriver != null) {
+                    idle.offerLast(webDriver);
+                }
+            } catch (Exception ex) {
+                _logger.warn("Unable to warm up a session for:{{}}", name, ex);
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    // drops a dead pooled session and starts a new one in its place, false when the session is not pooled
+    boolean evict(RemoteWebDriver webDriver) {
+        if (!idle.remove(webDriver)) {
+            return false;
+        }
+        SessionRegistry.quitLater(webDriver);
+        if (!closed) {
+            startInBackground(name);
+        }
+        return true;
+    }
+
+    // returns a warm session if there is one, otherwise waits while sessions are starting or resetting,
+    // creates a new session only when nothing is coming back to the pool and the grid has a free slot
+    RemoteWebDriver lease(String name) throws MalformedURLException {
+        long deadline = System.currentTimeMillis() + GridCapacity.getAdmissionTimeout();
+        try {
+            while (true) {
+                RemoteWebDriver webDriver = idle.pollFirst();
+                if (webDriver != null && SessionHealth.isDead(webDriver)) {
+                    SessionRegistry.quitLater(webDriver);
+                    continue;
+                }
+                if (webDriver != null) {
+                    return webDriver;
+                }
+                if (pending.get() == 0 && GridCapacity.tryAcquire()) {
+                    _logger.debug("No pooled session available, creating a new one for:{{}}", name);
+                    webDriver = create(name);
+                    if (webDriver == null) {
+                        throw new WebDriverException("Session pool closed, no session for:" + name);
+                    }
+                    return webDriver;
+                }
+                if (System.currentTimeMillis() > deadline) {
+                    throw new WebDriverException("No session available for:" + name + ", grid has no free slot");
+                }
+                webDriver = idle.pollFirst(250, TimeUnit.MILLISECONDS);
+                if (webDriver != null && SessionHealth.isDead(webDriver)) {
+                    SessionRegistry.quitLater(webDriver);
+                } else if (webDriver != null) {
+                    return webDriver;
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WebDriverException("Interrupted while leasing a session for:" + name, ex);
+        }
+    }
+
+    // resets the session in the background and returns it to the pool
+    void release(final RemoteWebDriver webDriver) {
+        if (closed) {
+            quit(webDriver);
+            return;
+        }
+        // nothing to reset, the next lease creates a new session
+        if (SessionHealth.isDead(webDriver)) {
+            SessionRegistry.quitLater(webDriver);
+            return;
+        }
+        pending.incrementAndGet();
+        executor.execute(() -> {
+            try {
+                factory.reset(webDriver);
+                if (closed) {
+                    quit(webDriver);
+                    return;
+                }
+                // most recently used first, it is the warmest
+                idle.offerFirst(webDriver);
+            } catch (Exception ex) {
+                _logger.warn("Unable to reset the session, SessionId:[{}]", webDriver.getSessionId(), ex);
+                quit(webDriver);
+            } finally {
+                pending.decrementAndGet();
+            }
+        });
+    }
+
+    // closes the pool, waits for the sessions still starting or resetting and returns the pooled sessions,
+    // the caller quits them. Sessions not ready within the timeout are quit as soon as they are created
+    List<RemoteWebDriver> close(long timeout, TimeUnit unit) {
+        closed = true;
+        List<RemoteWebDriver> webDrivers = new ArrayList<RemoteWebDriver>();
+        long deadline = System.currentTimeMillis() + unit.toMillis(timeout);
+        try {
+            while (pending.get() > 0 && System.currentTimeMillis() < deadline) {
+                RemoteWebDriver webDriver = idle.pollFirst(100, TimeUnit.MILLISECONDS);
+                if (webDriver != null) {
+                    webDrivers.add(webDriver);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (pending.get() > 0) {
+            _logger.warn("{} pooled session(s) not ready within {} {}, they will be quit on creation",
+                    pending.get(), timeout, unit);
+        }
+        idle.drainTo(webDrivers);
+        executor.shutdown();
+        return webDrivers;
+    }
+
+    // creates an admitted session, see GridCapacity.acquire(). Null when the pool was closed meanwhile
+    private RemoteWebDriver create(String name) throws MalformedURLException {
+        RemoteWebDriver webDriver;
+        try {
+            webDriver = factory.create(name);
+        } finally {
+            GridCapacity.release();
+        }
+        if (closed) {
+            quit(webDriver);
+            return null;
+        }
+        return webDriver;
+    }
+
+    private void quit(RemoteWebDriver webDriver) {
+        SessionRegistry.quit(webDriver);
+    }
+}
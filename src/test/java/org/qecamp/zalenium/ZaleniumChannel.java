@@ -0,0 +1,120 @@
+package org.qecamp.zalenium;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.openqa.selenium.Cookie;
+import org.openqa.selenium.WebDriver;
+
+import lombok.AccessLevel;
+import lombok.NoArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Non-blocking status channel to zalenium. Status cookies are queued per driver and sent by a background sender,
+ * a pending value is replaced by a newer value for the same cookie (coalesced).
+ */
+@Slf4j
+@NoArgsConstructor(access = AccessLevel.PRIVATE)
+public class ZaleniumChannel {
+    private static final ConcurrentHashMap<WebDriver, Mailbox> MAILBOXES = new ConcurrentHashMap<WebDriver, Mailbox>();
+    private static final AtomicLong SENT = new AtomicLong();
+    private static final AtomicLong COALESCED = new AtomicLong();
+    private static final AtomicLong DROPPED = new AtomicLong();
+
+    private static final AtomicInteger THREAD_NUMBER = new AtomicInteger(1);
+    private static final ExecutorService SENDER = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "zalenium-channel-" + THREAD_NUMBER.getAndIncrement());
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private static class Mailbox implements Runnable {
+        private final WebDriver driver;
+        private final ConcurrentHashMap<String, String> pending = new ConcurrentHashMap<String, String>();
+        private final AtomicBoolean scheduled = new AtomicBoolean(false);
+
+        Mailbox(WebDriver driver) {
+            this.driver = driver;
+        }
+
+        void offer(String key, String value) {
+            if (pending.put(key, value) != null) {
+                COALESCED.incrementAndGet();
+            }
+            if (scheduled.compareAndSet(false, true)) {
+                SENDER.execute(this);
+            }
+        }
+
+        @Override
+        public void run() {
+            drain();
+        }
+
+        // synchronized, keeps the updates of a cookie in order when a flush and the sender run together
+        synchronized void drain() {
+            scheduled.set(false);
+            for (String key : pending.keySet()) {
+                String value = pending.remove(key);
+                if (value == null) {
+                    continue;
+                }
+                try {
+                    driver.manage().addCookie(new Cookie(key, value));
+                    SENT.incrementAndGet();
+                } catch (Exception ex) {
+                    DROPPED.incrementAndGet();
+                    _logger.error("Unable to send zalenium status, key:[{}], value:[{}]", key, value, ex);
+                }
+            }
+        }
+    }
+
+    // queue the cookie, returns immediately
+    public static void send(WebDriver driver, String key, String value) {
+        Mailbox mailbox = MAILBOXES.get(driver);
+        if (mailbox == null) {
+            mailbox = MAILBOXES.computeIfAbsent(driver, Mailbox::new);
+        }
+        mailbox.offer(key, value);
+    }
+
+    // send everything pending for this driver on the calling thread, call it before reset or quit
+    public static void flush(WebDriver driver) {
+        Mailbox mailbox = MAILBOXES.get(driver);
+        if (mailbox != null) {
+            mailbox.drain();
+        }
+    }
+
+    // flush and forget the driver, call it before quit
+    public static void close(WebDriver driver) {
+        Mailbox mailbox = MAILBOXES.remove(driver);
+        if (mailbox != null) {
+            mailbox.drain();
+        }
+    }
+
+    // forget the driver and drop what is pending, its session is gone
+    public static void discard(WebDriver driver) {
+        Mailbox mailbox = MAILBOXES.remove(driver);
+        if (mailbox != null) {
+            DROPPED.addAndGet(mailbox.pending.size());
+            mailbox.pending.clear();
+        }
+    }
+
+    public static String stats() {
+        StringBuilder builder = new StringBuilder();
+        builder
+                .append("sent:").append(SENT.get())
+                .append(", coalesced:").append(COALESCED.get())
+                .append(", dropped:").append(DROPPED.get());
+        return builder.toString();
+    }
+}
@@ -12,15 +12,18 @@ public class TestDevelpoersMicroservicesPage extends TestAbstract {
 
     @BeforeClass
     public void loadInitialPage() {
-        if (webDriver.getCurrentUrl().contains("https://www.redhat.com")) {
-            click(By.linkText("DEVELOPERS"));
-        }
+        navigate(DEVELOPERS_PAGE, () -> {
+            if (getCurrentUrl().contains("https://www.redhat.com")) {
+                return click(By.linkText("DEVELOPERS"));
+            }
+            return false;
+        });
     }
 
     @Test
     public void testMicroservicesPage() {
         click(By.linkText("Microservices"));
         _logger.debug("Title: {}", text(By.className("field--name-title")));
-        sleep(WAIT_TIME);
+        waitForPageLoad();
     }
 }
@@ -12,16 +12,19 @@ public class TestDevelpoersServiceMeshPage extends TestAbstract {
 
     @BeforeClass
     public void loadInitialPage() {
-        if (webDriver.getCurrentUrl().contains("https://www.redhat.com")) {
-            click(By.linkText("DEVELOPERS"));
-        }
+        navigate(DEVELOPERS_PAGE, () -> {
+            if (getCurrentUrl().contains("https://www.redhat.com")) {
+                return click(By.linkText("DEVELOPERS"));
+            }
+            return false;
+        });
     }
 
     @Test
     public void testServiceMeshPage() {
         click(By.linkText("Service Mesh"));
         _logger.debug("Title: {}", text(By.className("field--name-title")));
-        sleep(WAIT_TIME);
+        waitForPageLoad();
     }
 
 }